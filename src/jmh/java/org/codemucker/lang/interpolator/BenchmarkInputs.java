@@ -0,0 +1,109 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates repeatable benchmark inputs
+ */
+final class BenchmarkInputs {
+
+    private static final String LITERAL_CHARS = "abcdefghijklmnopqrstuvwxyz     ,.\n";
+    private static final int NUM_VARS = 32;
+
+    private final String template;
+    private final Map<String, Object> vars;
+
+    private BenchmarkInputs(final String template, final Map<String, Object> vars) {
+        this.template = template;
+        this.vars = vars;
+    }
+
+    /**
+     * @param size roughly how many chars the template should be
+     * @param literalRun the number of literal chars between each token
+     * @param hitRatio the fraction of tokens which resolve to a known var
+     * @param nameLength the length of the var names
+     */
+    static BenchmarkInputs generate(final int size, final int literalRun, final double hitRatio, final int nameLength) {
+        final Random random = new Random(size * 31L + literalRun);
+        final String[] names = new String[NUM_VARS];
+        final Map<String, Object> vars = new HashMap<String, Object>();
+        for (int i = 0; i < NUM_VARS; i++) {
+            names[i] = name(i, nameLength);
+            vars.put(names[i], "value" + i);
+        }
+        final StringBuilder sb = new StringBuilder(size + literalRun + nameLength);
+        while (sb.length() < size) {
+            for (int i = 0; i < literalRun && sb.length() < size; i++) {
+                sb.append(LITERAL_CHARS.charAt(random.nextInt(LITERAL_CHARS.length())));
+            }
+            if (sb.length() < size) {
+                final String name = random.nextDouble() < hitRatio ? names[random.nextInt(NUM_VARS)] : name(NUM_VARS + random.nextInt(NUM_VARS), nameLength);
+                sb.append("${").append(name).append('}');
+            }
+        }
+        return new BenchmarkInputs(sb.toString(), vars);
+    }
+
+    /**
+     * Inputs which are hard work for the scanner
+     *
+     * @param kind one of 'dollars' (all '$'), 'open_tokens' (repeated '${x${'), 'unterminated' (one long unterminated token)
+     */
+    static BenchmarkInputs pathological(final String kind, final int size) {
+        final StringBuilder sb = new StringBuilder(size);
+        if ("dollars".equals(kind)) {
+            while (sb.length() < size) {
+                sb.append('$');
+            }
+        } else if ("open_tokens".equals(kind)) {
+            while (sb.length() < size) {
+                sb.append("${x");
+            }
+        } else if ("unterminated".equals(kind)) {
+            sb.append("${");
+            while (sb.length() < size) {
+                sb.append('x');
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown pathological input kind '" + kind + "'");
+        }
+        final Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("x", "value");
+        return new BenchmarkInputs(sb.toString(), vars);
+    }
+
+    private static String name(final int i, final int nameLength) {
+        final StringBuilder sb = new StringBuilder(nameLength);
+        sb.append("var").append(i).append('_');
+        while (sb.length() < nameLength) {
+            sb.append('n');
+        }
+        return sb.toString();
+    }
+
+    String getTemplate() {
+        return template;
+    }
+
+    Map<String, Object> getVars() {
+        return vars;
+    }
+}
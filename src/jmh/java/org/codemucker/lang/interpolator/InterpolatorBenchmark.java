@@ -0,0 +1,117 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the interpolation engines across template sizes, variable density, hit ratios and name lengths. Run with
+ * '-prof gc' (the default in the jmh profile) for allocation rates.
+ *
+ * <p>The reader benchmark is the original char by char engine, which the others are measured against</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InterpolatorBenchmark {
+
+    @Param({ "50", "1024", "102400", "10485760" })
+    public int size;
+
+    /**
+     * Literal chars between each token
+     */
+    @Param({ "16", "1024" })
+    public int literalRun;
+
+    @Param({ "1.0", "0.5", "0.0" })
+    public double hitRatio;
+
+    @Param({ "8", "256" })
+    public int nameLength;
+
+    private String input;
+    private Map<String, Object> vars;
+    private Template template;
+    private Template specialized;
+    private byte[] utf8Input;
+
+    @Setup
+    public void setup() {
+        final BenchmarkInputs inputs = BenchmarkInputs.generate(size, literalRun, hitRatio, nameLength);
+        input = inputs.getTemplate();
+        vars = inputs.getVars();
+        template = Interpolator.compile(input);
+        specialized = template.specializeAfter(1);
+        specialized.render(vars);
+        utf8Input = input.getBytes(Charset.forName("UTF-8"));
+    }
+
+    @Benchmark
+    public String reader() throws IOException {
+        final StringWriter sw = new StringWriter(input.length());
+        Interpolator.interpolate(new StringReader(input), sw, vars);
+        return sw.toString();
+    }
+
+    @Benchmark
+    public CharSequence string() {
+        return Interpolator.interpolate(input, vars);
+    }
+
+    @Benchmark
+    public String compiled() {
+        return template.render(vars);
+    }
+
+    @Benchmark
+    public String specialized() {
+        return specialized.render(vars);
+    }
+
+    /**
+     * Bytes in, bytes out, compare against {@link #string()} plus the decode and encode it would need to do the same
+     */
+    @Benchmark
+    public byte[] utf8() {
+        return Interpolator.interpolateUtf8(utf8Input, vars);
+    }
+
+    @Benchmark
+    public Template compile() {
+        return Interpolator.compile(input);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Inputs which are all (or nearly all) '$' chars and broken tokens, to catch engines which go quadratic or allocate
+ * heavily on them
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PathologicalInputBenchmark {
+
+    @Param({ "dollars", "open_tokens", "unterminated" })
+    public String kind;
+
+    @Param({ "1024", "1048576" })
+    public int size;
+
+    private String input;
+    private Map<String, Object> vars;
+
+    @Setup
+    public void setup() {
+        final BenchmarkInputs inputs = BenchmarkInputs.pathological(kind, size);
+        input = inputs.getTemplate();
+        vars = inputs.getVars();
+    }
+
+    @Benchmark
+    public String reader() throws IOException {
+        final StringWriter sw = new StringWriter(input.length());
+        Interpolator.interpolate(new StringReader(input), sw, vars);
+        return sw.toString();
+    }
+
+    @Benchmark
+    public CharSequence string() {
+        return Interpolator.interpolate(input, vars);
+    }
+
+    @Benchmark
+    public String compiled() {
+        return Interpolator.compile(input).render(vars);
+    }
+}
@@ -1,5 +1,8 @@
 package org.codemucker.lang.event;
 
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
 import org.codemucker.lang.annotation.ThreadSafe;
 
 /**
@@ -10,27 +13,45 @@ import org.codemucker.lang.annotation.ThreadSafe;
  * 
  * MySubClass extends AbstractListenerRegistry&lt;MyListener&gt; {....
  * 
+ * private static final ListenerCallback&lt;MyListener, MyEvent&gt; ON_MY_EVENT = ...;//see ListenerCallback
+ * 
  * public void onMyEvent(MyEvent evt) {
- *		MyListener[] safeListeners = getListeners();//ensures any listeners add/removed elsewhere don't mess with our loop
- *		for (MyListener listener : safeListeners) {
- *			try {
- *				listener.onMyEvent(evt);
- *			} catch (Exception e) {
- *				onListenerError(listener, e);//ensure a failing listener doesn't stuff it up for the others
- *			}
- *		}
+ *		fire(ON_MY_EVENT, evt);//a failing listener is passed to onListenerError, the others are still called
  *	}
  * </pre>
  * </p>
+ * 
+ * <p>Listeners added via {@link #addWeak(Object)} are only weakly held, so are dropped once nothing else refers to
+ * them, rather than leaking along with everything they refer to</p>
  * @param <L> the listener type
  */
 @ThreadSafe
 public abstract class AbstractListenerRegistry<L extends Object> implements ListenerRegistry<L> {
 	
-	private L[] listeners;
+	/**
+	 * Replaced (never modified) on each change, volatile so dispatching threads always see the latest
+	 */
+	private volatile L[] listeners;
+
+	/**
+	 * The weakly held listeners, replaced (never modified) on each change like the strong ones
+	 */
+	private volatile WeakReference<L>[] weakListeners = newWeakArray(0);
+
+	/**
+	 * Where the weak references end up once their listener has been collected, so we know when to prune
+	 */
+	private final ReferenceQueue<L> collected = new ReferenceQueue<L>();
 
 	private final Object lock = new Object();
 
+	private final ListenerCallback<L, Exception> errorHandler = new ListenerCallback<L, Exception>() {
+		@Override
+		public void call(L listener, Exception e) {
+			onListenerError(listener, e);
+		}
+	};
+
 	public AbstractListenerRegistry() {
 		listeners = newArray(0);
 	}
@@ -71,11 +92,10 @@ public abstract class AbstractListenerRegistry<L extends Object> implements List
 			return;
 		}
 		synchronized (lock) {
-			for(L l:listeners){
+			pruneCollected();
+			if(contains(listener)){
 				//only add the listener once
-				if(l == listener){
-					return;
-				}
+				return;
 			}
 			L[] newListeners = newArray(listeners.length + 1); 
 			System.arraycopy(listeners, 0, newListeners, 0, listeners.length);
@@ -84,6 +104,42 @@ public abstract class AbstractListenerRegistry<L extends Object> implements List
 		}
 	}
 
+	/**
+	 * Add a listener which is only weakly held, so it's removed once it's no longer referred to elsewhere. Weak
+	 * listeners are called after the strong ones, in the order they were added. The caller needs to keep a reference to
+	 * the listener for as long as it should receive events, so take care with anonymous listeners
+	 */
+	public void addWeak(L listener){
+		if(listener == null){
+			return;
+		}
+		synchronized (lock) {
+			pruneCollected();
+			if(contains(listener)){
+				//only add the listener once
+				return;
+			}
+			WeakReference<L>[] newWeakListeners = newWeakArray(weakListeners.length + 1);
+			System.arraycopy(weakListeners, 0, newWeakListeners, 0, weakListeners.length);
+			newWeakListeners[newWeakListeners.length-1] = new WeakReference<L>(listener, collected);
+			this.weakListeners = newWeakListeners;
+		}
+	}
+
+	private boolean contains(L listener){
+		for(L l:listeners){
+			if(l == listener){
+				return true;
+			}
+		}
+		for(WeakReference<L> ref:weakListeners){
+			if(ref.get() == listener){
+				return true;
+			}
+		}
+		return false;
+	}
+
 	@Override
 	public void removeAll(L[] listeners){
 		if(listeners == null){
@@ -111,6 +167,13 @@ public abstract class AbstractListenerRegistry<L extends Object> implements List
 			return;
 		}
 		synchronized (lock) {
+			pruneCollected();
+			for(int i = 0; i < weakListeners.length;i++){
+				if(weakListeners[i].get() == listener){
+					removeWeak(i);
+					return;
+				}
+			}
 			for(int i = 0; i < listeners.length;i++){
 				if(listeners[i] == listener){
 					L[] newListeners = newArray(listeners.length-1);
@@ -118,7 +181,7 @@ public abstract class AbstractListenerRegistry<L extends Object> implements List
 					System.arraycopy(listeners, 0, newListeners, 0, i);
 					//copy listeners after
 					if(i<listeners.length-1){//not last one
-						System.arraycopy(listener, i+1, newListeners, i, listeners.length-i-1);
+						System.arraycopy(listeners, i+1, newListeners, i, listeners.length-i-1);
 					}
 					this.listeners = newListeners;
 					return;
@@ -131,11 +194,136 @@ public abstract class AbstractListenerRegistry<L extends Object> implements List
 	public void removeAll(){
 		synchronized (lock) {
 			listeners = newArray(0);
+			weakListeners = newWeakArray(0);
+			while(collected.poll() != null){
+				//nothing left to prune
+			}
+		}
+	}
+
+	private void removeWeak(int i){
+		WeakReference<L>[] newWeakListeners = newWeakArray(weakListeners.length-1);
+		System.arraycopy(weakListeners, 0, newWeakListeners, 0, i);
+		System.arraycopy(weakListeners, i+1, newWeakListeners, i, weakListeners.length-i-1);
+		this.weakListeners = newWeakListeners;
+	}
+
+	/**
+	 * Drop the weak listeners which have been collected, if any. Must hold the lock
+	 */
+	private void pruneCollected(){
+		if(collected.poll() != null){
+			pruneAfterPoll();
 		}
 	}
+
+	/**
+	 * Drop the collected weak listeners, one collected ref having already been polled. Must hold the lock
+	 */
+	private void pruneAfterPoll(){
+		while(collected.poll() != null){
+			//drain, all cleared refs are found below
+		}
+		int live = 0;
+		for(WeakReference<L> ref:weakListeners){
+			if(ref.get() != null){
+				live++;
+			}
+		}
+		WeakReference<L>[] newWeakListeners = newWeakArray(live);
+		int i = 0;
+		for(WeakReference<L> ref:weakListeners){
+			//may have been cleared since counting, never revived
+			if(ref.get() != null && i < live){
+				newWeakListeners[i++] = ref;
+			}
+		}
+		if(i < live){
+			WeakReference<L>[] trimmed = newWeakArray(i);
+			System.arraycopy(newWeakListeners, 0, trimmed, 0, i);
+			newWeakListeners = trimmed;
+		}
+		this.weakListeners = newWeakListeners;
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private WeakReference<L>[] newWeakArray(int length){
+		return new WeakReference[length];
+	}
+
+	/**
+	 * The number of weak listeners held, including any collected but not yet pruned
+	 */
+	int getWeakListenerCount(){
+		return weakListeners.length;
+	}
 	
 	protected abstract L[] newArray(int length);
 
+	/**
+	 * Call each of the current listeners with the event, in the order they were added. A listener which throws is
+	 * passed to {@link #onListenerError(Object, Exception)} and the rest are still called. Listeners added or removed
+	 * while firing don't affect this dispatch. Doesn't allocate anything itself
+	 * 
+	 * <p>Weak listeners which have been collected are skipped, and pruned. The registry's lock is only taken to prune if
+	 * one has been collected since the last change</p>
+	 */
+	protected <E> void fire(ListenerCallback<? super L, ? super E> callback, E event){
+		final L[] listeners = this.listeners;
+		switch (listeners.length) {
+		case 0:
+			break;
+		case 1:
+			fireOne(listeners[0], callback, event);
+			break;
+		default:
+			for(int i = 0; i < listeners.length; i++){
+				fireOne(listeners[i], callback, event);
+			}
+		}
+		final WeakReference<L>[] weakListeners = this.weakListeners;
+		if(weakListeners.length != 0){
+			fireWeak(weakListeners, callback, event);
+		}
+	}
+
+	private <E> void fireWeak(WeakReference<L>[] weakListeners, ListenerCallback<? super L, ? super E> callback, E event){
+		for(int i = 0; i < weakListeners.length; i++){
+			final L listener = weakListeners[i].get();
+			if(listener != null){
+				fireOne(listener, callback, event);
+			}
+		}
+		//only locks if a listener has been collected
+		if(collected.poll() != null){
+			synchronized (lock) {
+				pruneAfterPoll();
+			}
+		}
+	}
+
+	/**
+	 * Queue the event for delivery to each of the current listeners on the given dispatcher, returning straight away.
+	 * Each listener receives events in the order they were fired, provided the same dispatcher is always used. Errors
+	 * are passed to {@link #onListenerError(Object, Exception)} as for {@link #fire(ListenerCallback, Object)}.
+	 * Dispatches straight from the strong and weak listener arrays, without merging them
+	 *
+	 * @return completes once all the listeners have been called
+	 * @throws java.util.concurrent.RejectedExecutionException if the dispatcher's executor rejects a lane, once the event
+	 *             has been queued for all the listeners. It's delivered next time the lane is run
+	 */
+	protected <E> DispatchFuture fireAsync(AsyncDispatcher dispatcher, ListenerCallback<? super L, ? super E> callback, E event){
+		return dispatcher.dispatch(listeners, weakListeners, callback, event, errorHandler);
+	}
+
+	private <E> void fireOne(L listener, ListenerCallback<? super L, ? super E> callback, E event){
+		try {
+			callback.call(listener, event);
+		} catch (Exception e) {
+			onListenerError(listener, e);
+		}
+	}
+
 	/**
 	 * Called when a listener throws an error. Default implementation just logs the error
 	 * @param listener
@@ -145,7 +333,30 @@ public abstract class AbstractListenerRegistry<L extends Object> implements List
 		e.printStackTrace();
 	}
 	
+	/**
+	 * The current listeners, strong then weak. Allocates a new array if there are any weak listeners, prefer
+	 * {@link #fire(ListenerCallback, Object)} for dispatching
+	 */
 	protected L[] getListeners(){
-		return listeners;
+		final L[] listeners = this.listeners;
+		final WeakReference<L>[] weakListeners = this.weakListeners;
+		if(weakListeners.length == 0){
+			return listeners;
+		}
+		final L[] all = newArray(listeners.length + weakListeners.length);
+		System.arraycopy(listeners, 0, all, 0, listeners.length);
+		int count = listeners.length;
+		for(WeakReference<L> ref:weakListeners){
+			final L listener = ref.get();
+			if(listener != null){
+				all[count++] = listener;
+			}
+		}
+		if(count == all.length){
+			return all;
+		}
+		final L[] live = newArray(count);
+		System.arraycopy(all, 0, live, 0, count);
+		return live;
 	}
 }
\ No newline at end of file
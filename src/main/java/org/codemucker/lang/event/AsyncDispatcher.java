@@ -0,0 +1,277 @@
+package org.codemucker.lang.event;
+
+import static org.codemucker.lang.Check.checkNotNull;
+import static org.codemucker.lang.Check.checkTrue;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.codemucker.lang.annotation.ThreadSafe;
+
+/**
+ * Delivers events to listeners on an {@link Executor}, so a slow listener doesn't hold up the publishing thread. Used
+ * via a registry's fireAsync method. One dispatcher can be shared by many registries.
+ *
+ * <p>Each listener is assigned to one of a fixed number of lanes by identity. A lane delivers its events one at a time
+ * in the order they were fired, so each listener sees events in order (when fired from the one thread, or otherwise
+ * ordered by the publishers), and is never called concurrently by this dispatcher. Lanes run independently of each
+ * other, so a slow listener only delays the listeners sharing its lane. Use more lanes to lower the chance of sharing</p>
+ *
+ * <p>A listener which throws an exception is passed to the registry's error handler. Anything else thrown by a listener
+ * or the error handler, such as an {@link Error}, is passed to the delivering thread's
+ * {@link Thread.UncaughtExceptionHandler}, and the lane carries on with the next event</p>
+ *
+ * <p>On JVMs with virtual threads, {@link #virtualThreads()} delivers each lane's events on a virtual thread, so
+ * listeners which block don't tie up a pooled thread</p>
+ */
+@ThreadSafe
+public class AsyncDispatcher {
+
+	public static final int DEFAULT_LANES = Math.max(16, Runtime.getRuntime().availableProcessors() * 4);
+
+	/**
+	 * Virtual threads are cheap, so allow many more lanes, which only limit concurrency
+	 */
+	public static final int DEFAULT_VIRTUAL_LANES = 1024;
+
+	/**
+	 * Events delivered by a lane before it gives up its thread, so busy lanes don't starve the others on a bounded pool
+	 */
+	private static final int MAX_BATCH = 64;
+
+	private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = findVirtualThreadExecutorFactory();
+
+	private final Executor executor;
+	private final Lane[] lanes;
+	private final int mask;
+
+	public AsyncDispatcher(Executor executor) {
+		this(executor, DEFAULT_LANES);
+	}
+
+	/**
+	 * @param numLanes the number of independent lanes, rounded up to a power of two
+	 */
+	public AsyncDispatcher(Executor executor, int numLanes) {
+		checkTrue("numLanes", numLanes, numLanes >= 1, "expect at least one lane");
+		this.executor = checkNotNull("executor", executor);
+		int size = 1;
+		while (size < numLanes) {
+			size <<= 1;
+		}
+		lanes = new Lane[size];
+		for (int i = 0; i < size; i++) {
+			lanes[i] = new Lane();
+		}
+		mask = size - 1;
+	}
+
+	/**
+	 * Whether this JVM supports virtual threads (Java 21+)
+	 */
+	public static boolean isVirtualThreadsSupported() {
+		return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+	}
+
+	/**
+	 * A dispatcher which delivers on a new virtual thread per task
+	 *
+	 * @throws UnsupportedOperationException if this JVM doesn't support virtual threads
+	 */
+	public static AsyncDispatcher virtualThreads() {
+		if (!isVirtualThreadsSupported()) {
+			throw new UnsupportedOperationException("Virtual threads are not supported by this JVM (" + System.getProperty("java.version") + ")");
+		}
+		final Executor executor;
+		try {
+			executor = (Executor) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+		} catch (Exception e) {
+			throw new UnsupportedOperationException("Couldn't create a virtual thread executor", e);
+		}
+		return new AsyncDispatcher(executor, DEFAULT_VIRTUAL_LANES);
+	}
+
+	/**
+	 * A virtual thread dispatcher if supported, else one using the given executor
+	 */
+	public static AsyncDispatcher virtualThreadsOr(Executor fallback) {
+		return isVirtualThreadsSupported() ? virtualThreads() : new AsyncDispatcher(fallback);
+	}
+
+	private static Method findVirtualThreadExecutorFactory() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			return null;
+		} catch (SecurityException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Queue the event for delivery to each of the listeners
+	 *
+	 * @param onError passed any listener which throws, along with the error
+	 * @throws RejectedExecutionException if the executor rejects a lane, once the event has been queued for all the
+	 *             listeners. The event stays queued, and is delivered (completing the future) next time its lane is run
+	 */
+	<L, E> DispatchFuture dispatch(L[] listeners, ListenerCallback<? super L, ? super E> callback, E event, ListenerCallback<? super L, Exception> onError) {
+		if (listeners.length == 0) {
+			return DispatchFuture.COMPLETED;
+		}
+		final DispatchFuture future = new DispatchFuture(listeners.length);
+		RejectedExecutionException rejected = null;
+		for (int i = 0; i < listeners.length; i++) {
+			rejected = submit(listeners[i], new Delivery<L, E>(listeners[i], callback, event, onError, future), rejected);
+		}
+		if (rejected != null) {
+			throw rejected;
+		}
+		return future;
+	}
+
+	/**
+	 * As per {@link #dispatch(Object[], ListenerCallback, Object, ListenerCallback)}, to the strong then the weakly held
+	 * listeners, without merging them into one array first. Weak listeners which have been collected are skipped
+	 */
+	<L, E> DispatchFuture dispatch(L[] listeners, WeakReference<L>[] weakListeners, ListenerCallback<? super L, ? super E> callback, E event, ListenerCallback<? super L, Exception> onError) {
+		if (weakListeners.length == 0) {
+			return dispatch(listeners, callback, event, onError);
+		}
+		final DispatchFuture future = new DispatchFuture(listeners.length + weakListeners.length);
+		RejectedExecutionException rejected = null;
+		for (int i = 0; i < listeners.length; i++) {
+			rejected = submit(listeners[i], new Delivery<L, E>(listeners[i], callback, event, onError, future), rejected);
+		}
+		for (int i = 0; i < weakListeners.length; i++) {
+			final L listener = weakListeners[i].get();
+			if (listener == null) {
+				//nothing to deliver to
+				future.delivered(true);
+			} else {
+				rejected = submit(listener, new Delivery<L, E>(listener, callback, event, onError, future), rejected);
+			}
+		}
+		if (rejected != null) {
+			throw rejected;
+		}
+		return future;
+	}
+
+	/**
+	 * Queue the delivery on the listener's lane, carrying on past a rejecting executor so every listener gets queued
+	 *
+	 * @return the first rejection so far, if any
+	 */
+	private RejectedExecutionException submit(Object listener, Runnable delivery, RejectedExecutionException rejected) {
+		try {
+			laneFor(listener).submit(delivery);
+		} catch (RejectedExecutionException e) {
+			if (rejected == null) {
+				return e;
+			}
+		}
+		return rejected;
+	}
+
+	private Lane laneFor(Object listener) {
+		return lanes[laneIndex(listener)];
+	}
+
+	int laneIndex(Object listener) {
+		final int h = System.identityHashCode(listener) * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	/**
+	 * Runs its queued deliveries in order, at most one thread at a time
+	 */
+	private final class Lane implements Runnable {
+		private final ConcurrentLinkedQueue<Runnable> queue = new ConcurrentLinkedQueue<Runnable>();
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+
+		void submit(Runnable delivery) {
+			queue.add(delivery);
+			schedule();
+		}
+
+		private void schedule() {
+			if (scheduled.compareAndSet(false, true)) {
+				try {
+					executor.execute(this);
+				} catch (RuntimeException e) {
+					scheduled.set(false);
+					throw e;
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				for (int i = 0; i < MAX_BATCH; i++) {
+					final Runnable delivery = queue.poll();
+					if (delivery == null) {
+						break;
+					}
+					delivery.run();
+				}
+			} finally {
+				scheduled.set(false);
+				//anything added after we stopped polling, or left over from the batch
+				if (!queue.isEmpty()) {
+					schedule();
+				}
+			}
+		}
+	}
+
+	private static class Delivery<L, E> implements Runnable {
+		private final L listener;
+		private final ListenerCallback<? super L, ? super E> callback;
+		private final E event;
+		private final ListenerCallback<? super L, Exception> onError;
+		private final DispatchFuture future;
+
+		Delivery(L listener, ListenerCallback<? super L, ? super E> callback, E event, ListenerCallback<? super L, Exception> onError, DispatchFuture future) {
+			this.listener = listener;
+			this.callback = callback;
+			this.event = event;
+			this.onError = onError;
+			this.future = future;
+		}
+
+		@Override
+		public void run() {
+			boolean ok = false;
+			try {
+				callback.call(listener, event);
+				ok = true;
+			} catch (Exception e) {
+				try {
+					onError.call(listener, e);
+				} catch (Throwable t) {
+					//don't let a failing error handler stop the lane
+					uncaught(t);
+				}
+			} catch (Throwable t) {
+				uncaught(t);
+			} finally {
+				future.delivered(ok);
+			}
+		}
+	}
+
+	private static void uncaught(Throwable t) {
+		final Thread thread = Thread.currentThread();
+		final Thread.UncaughtExceptionHandler handler = thread.getUncaughtExceptionHandler();
+		if (handler != null) {
+			handler.uncaughtException(thread, t);
+		}
+	}
+}
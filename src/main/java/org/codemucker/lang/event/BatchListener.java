@@ -0,0 +1,16 @@
+package org.codemucker.lang.event;
+
+import java.util.List;
+
+/**
+ * Receives the events collected by an {@link EventBatcher}
+ *
+ * @param <E> the event type
+ */
+public interface BatchListener<E> {
+
+	/**
+	 * @param events the events in the order they were first added, never empty. Not modifiable
+	 */
+	void onBatch(List<E> events);
+}
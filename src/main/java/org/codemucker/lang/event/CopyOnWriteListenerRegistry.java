@@ -0,0 +1,295 @@
+package org.codemucker.lang.event;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import org.codemucker.lang.annotation.ThreadSafe;
+
+/**
+ * A lock free alternative to {@link AbstractListenerRegistry}, for registries with heavy add/remove churn or many
+ * listeners. Used in the same way, dispatching via {@link #fire(ListenerCallback, Object)}.
+ *
+ * <p>The listeners, along with an identity hash index of them, are held in an immutable snapshot which is replaced
+ * via compare-and-set on each change, so changes never block each other or the dispatching threads. Finding whether a
+ * listener is registered is a hash lookup, and finding where it is to remove it a binary search, so neither slows
+ * down as the number of listeners grows beyond copying the array. Listeners are kept in the order they were added</p>
+ *
+ * @param <L> the listener type
+ */
+@ThreadSafe
+public abstract class CopyOnWriteListenerRegistry<L> implements ListenerRegistry<L> {
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<CopyOnWriteListenerRegistry, Snapshot> SNAPSHOT = AtomicReferenceFieldUpdater.newUpdater(CopyOnWriteListenerRegistry.class, Snapshot.class, "snapshot");
+
+	private volatile Snapshot<L> snapshot;
+
+	private final ListenerCallback<L, Exception> errorHandler = new ListenerCallback<L, Exception>() {
+		@Override
+		public void call(L listener, Exception e) {
+			onListenerError(listener, e);
+		}
+	};
+
+	public CopyOnWriteListenerRegistry() {
+		snapshot = emptySnapshot();
+	}
+
+	public CopyOnWriteListenerRegistry(L listener) {
+		this();
+		add(listener);
+	}
+
+	public CopyOnWriteListenerRegistry(L[] listeners) {
+		this();
+		addAll(listeners);
+	}
+
+	private Snapshot<L> emptySnapshot() {
+		return new Snapshot<L>(newArray(0), new long[0], IdentityIndex.EMPTY, 0);
+	}
+
+	@Override
+	public void add(L listener) {
+		if (listener == null) {
+			return;
+		}
+		while (true) {
+			final Snapshot<L> current = snapshot;
+			if (current.index.get(listener) != IdentityIndex.ABSENT) {
+				//only add the listener once
+				return;
+			}
+			if (compareAndSet(current, current.with(newArray(current.listeners.length + 1), listener))) {
+				return;
+			}
+		}
+	}
+
+	@Override
+	public void addAll(L[] listeners) {
+		if (listeners == null) {
+			return;
+		}
+		addAll(Arrays.asList(listeners));
+	}
+
+	/**
+	 * Add all the listeners in one change
+	 */
+	@Override
+	public void addAll(Iterable<L> listeners) {
+		if (listeners == null) {
+			return;
+		}
+		while (true) {
+			final Snapshot<L> current = snapshot;
+			final List<L> toAdd = new ArrayList<L>();
+			final Map<L, Boolean> seen = new IdentityHashMap<L, Boolean>();
+			for (L listener : listeners) {
+				if (listener != null && current.index.get(listener) == IdentityIndex.ABSENT && seen.put(listener, Boolean.TRUE) == null) {
+					toAdd.add(listener);
+				}
+			}
+			if (toAdd.isEmpty() || compareAndSet(current, current.withAll(newArray(current.listeners.length + toAdd.size()), toAdd))) {
+				return;
+			}
+		}
+	}
+
+	@Override
+	public void remove(L listener) {
+		if (listener == null) {
+			return;
+		}
+		while (true) {
+			final Snapshot<L> current = snapshot;
+			final long seq = current.index.get(listener);
+			if (seq == IdentityIndex.ABSENT) {
+				return;
+			}
+			final int pos = Arrays.binarySearch(current.seqs, seq);
+			if (compareAndSet(current, current.without(newArray(current.listeners.length - 1), new int[] { pos }))) {
+				return;
+			}
+		}
+	}
+
+	@Override
+	public void removeAll(L[] listeners) {
+		if (listeners == null) {
+			return;
+		}
+		removeAll(Arrays.asList(listeners));
+	}
+
+	/**
+	 * Remove all the listeners in one change
+	 */
+	@Override
+	public void removeAll(Iterable<L> listeners) {
+		if (listeners == null) {
+			return;
+		}
+		while (true) {
+			final Snapshot<L> current = snapshot;
+			final Map<L, Boolean> seen = new IdentityHashMap<L, Boolean>();
+			int[] positions = new int[8];
+			int count = 0;
+			for (L listener : listeners) {
+				final long seq = listener == null ? IdentityIndex.ABSENT : current.index.get(listener);
+				if (seq != IdentityIndex.ABSENT && seen.put(listener, Boolean.TRUE) == null) {
+					if (count == positions.length) {
+						positions = Arrays.copyOf(positions, count * 2);
+					}
+					positions[count++] = Arrays.binarySearch(current.seqs, seq);
+				}
+			}
+			if (count == 0) {
+				return;
+			}
+			positions = Arrays.copyOf(positions, count);
+			Arrays.sort(positions);
+			if (compareAndSet(current, current.without(newArray(current.listeners.length - count), positions))) {
+				return;
+			}
+		}
+	}
+
+	public void removeAll() {
+		SNAPSHOT.set(this, emptySnapshot());
+	}
+
+	private boolean compareAndSet(Snapshot<L> expect, Snapshot<L> update) {
+		return SNAPSHOT.compareAndSet(this, expect, update);
+	}
+
+	protected abstract L[] newArray(int length);
+
+	/**
+	 * Call each of the current listeners with the event, in the order they were added. A listener which throws is
+	 * passed to {@link #onListenerError(Object, Exception)} and the rest are still called. Listeners added or removed
+	 * while firing don't affect this dispatch. Doesn't allocate anything itself
+	 */
+	protected <E> void fire(ListenerCallback<? super L, ? super E> callback, E event) {
+		final L[] listeners = snapshot.listeners;
+		switch (listeners.length) {
+		case 0:
+			return;
+		case 1:
+			fireOne(listeners[0], callback, event);
+			return;
+		default:
+			for (int i = 0; i < listeners.length; i++) {
+				fireOne(listeners[i], callback, event);
+			}
+		}
+	}
+
+	/**
+	 * Queue the event for delivery to each of the current listeners on the given dispatcher, returning straight away.
+	 * Each listener receives events in the order they were fired, provided the same dispatcher is always used. Errors
+	 * are passed to {@link #onListenerError(Object, Exception)} as for {@link #fire(ListenerCallback, Object)}
+	 *
+	 * @return completes once all the listeners have been called
+	 * @throws java.util.concurrent.RejectedExecutionException if the dispatcher's executor rejects a lane, once the event
+	 *             has been queued for all the listeners. It's delivered next time the lane is run
+	 */
+	protected <E> DispatchFuture fireAsync(AsyncDispatcher dispatcher, ListenerCallback<? super L, ? super E> callback, E event) {
+		return dispatcher.dispatch(snapshot.listeners, callback, event, errorHandler);
+	}
+
+	private <E> void fireOne(L listener, ListenerCallback<? super L, ? super E> callback, E event) {
+		try {
+			callback.call(listener, event);
+		} catch (Exception e) {
+			onListenerError(listener, e);
+		}
+	}
+
+	/**
+	 * Called when a listener throws an error. Default implementation just logs the error
+	 * @param listener
+	 * @param e
+	 */
+	protected void onListenerError(L listener, Exception e) {
+		e.printStackTrace();
+	}
+
+	/**
+	 * The current listeners. The returned array is never changed by the registry, and must not be changed by the
+	 * caller. Safe to call from any thread, always seeing the latest completed change
+	 */
+	protected L[] getListeners() {
+		return snapshot.listeners;
+	}
+
+	/**
+	 * An immutable view of the registered listeners. Each listener is tagged with an increasing sequence number as it
+	 * is added, so the sequence numbers are sorted in listener order and can be binary searched
+	 */
+	private static class Snapshot<L> {
+		final L[] listeners;
+		final long[] seqs;
+		final IdentityIndex index;
+		final long nextSeq;
+
+		Snapshot(L[] listeners, long[] seqs, IdentityIndex index, long nextSeq) {
+			this.listeners = listeners;
+			this.seqs = seqs;
+			this.index = index;
+			this.nextSeq = nextSeq;
+		}
+
+		Snapshot<L> with(L[] newListeners, L listener) {
+			final int len = listeners.length;
+			System.arraycopy(listeners, 0, newListeners, 0, len);
+			newListeners[len] = listener;
+			final long[] newSeqs = Arrays.copyOf(seqs, len + 1);
+			newSeqs[len] = nextSeq;
+			final IdentityIndex newIndex = index.copy(len + 1);
+			newIndex.put(listener, nextSeq);
+			return new Snapshot<L>(newListeners, newSeqs, newIndex, nextSeq + 1);
+		}
+
+		Snapshot<L> withAll(L[] newListeners, List<L> toAdd) {
+			final int len = listeners.length;
+			System.arraycopy(listeners, 0, newListeners, 0, len);
+			final long[] newSeqs = Arrays.copyOf(seqs, newListeners.length);
+			final IdentityIndex newIndex = index.copy(newListeners.length);
+			long seq = nextSeq;
+			for (int i = 0; i < toAdd.size(); i++) {
+				final L listener = toAdd.get(i);
+				newListeners[len + i] = listener;
+				newSeqs[len + i] = seq;
+				newIndex.put(listener, seq++);
+			}
+			return new Snapshot<L>(newListeners, newSeqs, newIndex, seq);
+		}
+
+		/**
+		 * @param positions the sorted positions of the listeners to remove
+		 */
+		Snapshot<L> without(L[] newListeners, int[] positions) {
+			final long[] newSeqs = new long[newListeners.length];
+			final IdentityIndex newIndex = index.copy(newListeners.length);
+			int from = 0;
+			int to = 0;
+			for (int pos : positions) {
+				//copy the run before the removed one
+				System.arraycopy(listeners, from, newListeners, to, pos - from);
+				System.arraycopy(seqs, from, newSeqs, to, pos - from);
+				to += pos - from;
+				from = pos + 1;
+				newIndex.remove(listeners[pos]);
+			}
+			System.arraycopy(listeners, from, newListeners, to, listeners.length - from);
+			System.arraycopy(seqs, from, newSeqs, to, listeners.length - from);
+			return new Snapshot<L>(newListeners, newSeqs, newIndex, nextSeq);
+		}
+	}
+}
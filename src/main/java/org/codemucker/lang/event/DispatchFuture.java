@@ -0,0 +1,125 @@
+package org.codemucker.lang.event;
+
+import static org.codemucker.lang.Check.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codemucker.lang.annotation.ThreadSafe;
+
+/**
+ * Completes once an asynchronously fired event has been delivered to all the listeners it was fired to. Publishers can
+ * ignore it (fire and forget), block on {@link #get()}, or add a listener to be run once done.
+ *
+ * <p>A listener throwing doesn't fail the future, the error is passed to the registry's onListenerError as for a
+ * synchronous fire, and counted in {@link #getFailedCount()}. Delivery can't be cancelled</p>
+ */
+@ThreadSafe
+public class DispatchFuture implements Future<Void> {
+
+	static final DispatchFuture COMPLETED = new DispatchFuture(0);
+
+	private final Object lock = new Object();
+	private final CountDownLatch done = new CountDownLatch(1);
+	private final AtomicInteger remaining;
+	private final AtomicInteger failed = new AtomicInteger();
+	private List<Runnable> listeners = new ArrayList<Runnable>();
+
+	DispatchFuture(int numListeners) {
+		remaining = new AtomicInteger(numListeners);
+		if (numListeners == 0) {
+			finish();
+		}
+	}
+
+	/**
+	 * Called once per listener after the event was delivered to it
+	 */
+	void delivered(boolean ok) {
+		if (!ok) {
+			failed.incrementAndGet();
+		}
+		if (remaining.decrementAndGet() == 0) {
+			finish();
+		}
+	}
+
+	private void finish() {
+		final List<Runnable> toRun;
+		synchronized (lock) {
+			toRun = listeners;
+			listeners = null;
+		}
+		done.countDown();
+		for (Runnable listener : toRun) {
+			listener.run();
+		}
+	}
+
+	/**
+	 * Run the given listener on the given executor once the event has been delivered to all listeners, or straight away
+	 * if it already has
+	 */
+	public void addListener(final Runnable listener, final Executor executor) {
+		checkNotNull("listener", listener);
+		checkNotNull("executor", executor);
+		final Runnable run = new Runnable() {
+			@Override
+			public void run() {
+				executor.execute(listener);
+			}
+		};
+		synchronized (lock) {
+			if (listeners != null) {
+				listeners.add(run);
+				return;
+			}
+		}
+		run.run();
+	}
+
+	/**
+	 * The number of listeners which threw an error handling the event so far
+	 */
+	public int getFailedCount() {
+		return failed.get();
+	}
+
+	/**
+	 * Delivery can't be cancelled, always returns false
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return false;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return false;
+	}
+
+	@Override
+	public boolean isDone() {
+		return done.getCount() == 0;
+	}
+
+	@Override
+	public Void get() throws InterruptedException {
+		done.await();
+		return null;
+	}
+
+	@Override
+	public Void get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+		if (!done.await(timeout, unit)) {
+			throw new TimeoutException("Timed out waiting for event delivery after " + timeout + " " + unit + ", " + remaining.get() + " listeners remaining");
+		}
+		return null;
+	}
+}
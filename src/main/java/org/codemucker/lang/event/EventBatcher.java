@@ -0,0 +1,290 @@
+package org.codemucker.lang.event;
+
+import static org.codemucker.lang.Check.checkNotNull;
+import static org.codemucker.lang.Check.checkTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.codemucker.lang.IBuilder;
+import org.codemucker.lang.annotation.ThreadSafe;
+
+/**
+ * Collects high frequency events and delivers them in batches, cutting down the number of listener calls. A batch is
+ * delivered once the max number of events have been added since the last one, once the max delay has passed since the
+ * first event of the batch was added, or on {@link #flush()}, whichever comes first.
+ *
+ * <p>Given a coalescing key, an event replaces any event with the same key still waiting in the batch, so listeners
+ * which only care about the latest state only see that. The replacing event takes the place of the one it replaced.
+ * Events with a null key are never replaced</p>
+ *
+ * <p>Batches are delivered one at a time in order. Count and flush triggered batches are delivered on the adding or
+ * flushing thread, delay triggered ones on the scheduler's thread</p>
+ *
+ * <p>If the listener throws, the batch and the exception are passed to the error handler, see
+ * {@link Builder#onError(ErrorHandler)}, and the batch is dropped. It isn't retried, and the exception isn't thrown to
+ * whoever triggered the delivery. Batching carries on as normal with the next batch</p>
+ *
+ * <p>Usage:
+ * <pre>
+ * MySubClass extends AbstractListenerRegistry&lt;MyListener&gt; {....
+ * 
+ * private final EventBatcher&lt;MyEvent&gt; batcher = EventBatcher.&lt;MyEvent&gt;builder()
+ *		.maxEvents(1000)
+ *		.maxDelay(50, TimeUnit.MILLISECONDS, scheduler)
+ *		.coalesceBy(BY_ID)
+ *		.listener(new BatchListener&lt;MyEvent&gt;() {
+ *			public void onBatch(List&lt;MyEvent&gt; events) {
+ *				fire(ON_MY_EVENTS, events);
+ *			}
+ *		})
+ *		.build();
+ * 
+ * public void onMyEvent(MyEvent evt) {
+ *		batcher.add(evt);
+ *	}
+ * </pre>
+ * </p>
+ * @param <E> the event type
+ */
+@ThreadSafe
+public class EventBatcher<E> {
+
+	public static final int DEFAULT_MAX_EVENTS = 1000;
+
+	/**
+	 * Passes batch failures to the delivering thread's uncaught exception handler
+	 */
+	private static final ErrorHandler<Object> UNCAUGHT = new ErrorHandler<Object>() {
+		@Override
+		public void onBatchError(List<?> events, Exception e) {
+			uncaught(e);
+		}
+	};
+
+	private final BatchListener<E> listener;
+	private final ErrorHandler<? super E> errorHandler;
+	private final int maxEvents;
+	private final long maxDelayNanos;
+	private final ScheduledExecutorService scheduler;
+	private final CoalescingKey<? super E> coalescingKey;
+
+	private final Object lock = new Object();
+	/**
+	 * Held while taking and delivering a batch, so batches are delivered in order, one at a time
+	 */
+	private final Object deliveryLock = new Object();
+
+	private List<E> events;
+	/**
+	 * Position of each keyed event in the pending events, null if not coalescing
+	 */
+	private Map<Object, Integer> positions;
+	/**
+	 * Events added to the pending batch, including replaced ones
+	 */
+	private int added;
+	/**
+	 * Incremented on each batch taken, so a delay timer for an already delivered batch does nothing
+	 */
+	private long batchNum;
+
+	private EventBatcher(BatchListener<E> listener, ErrorHandler<? super E> errorHandler, int maxEvents, long maxDelayNanos, ScheduledExecutorService scheduler, CoalescingKey<? super E> coalescingKey) {
+		this.listener = listener;
+		this.errorHandler = errorHandler;
+		this.maxEvents = maxEvents;
+		this.maxDelayNanos = maxDelayNanos;
+		this.scheduler = scheduler;
+		this.coalescingKey = coalescingKey;
+		newBatch();
+	}
+
+	public static <E> Builder<E> builder() {
+		return new Builder<E>();
+	}
+
+	private void newBatch() {
+		events = new ArrayList<E>();
+		positions = coalescingKey == null ? null : new HashMap<Object, Integer>();
+		added = 0;
+		batchNum++;
+	}
+
+	public void add(E event) {
+		checkNotNull("event", event);
+		final boolean full;
+		long startedBatch = -1;
+		synchronized (lock) {
+			final Object key = positions == null ? null : coalescingKey.keyFor(event);
+			final Integer pos = key == null ? null : positions.get(key);
+			if (pos != null) {
+				events.set(pos, event);
+			} else {
+				if (key != null) {
+					positions.put(key, events.size());
+				}
+				events.add(event);
+			}
+			added++;
+			full = added >= maxEvents;
+			if (added == 1) {
+				startedBatch = batchNum;
+			}
+		}
+		if (full) {
+			flush();
+		} else if (startedBatch != -1 && scheduler != null) {
+			final long batch = startedBatch;
+			scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						flush(batch);
+					} catch (Throwable t) {
+						//would otherwise be silently swallowed by the scheduler
+						uncaught(t);
+					}
+				}
+			}, maxDelayNanos, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * Deliver any pending events now
+	 */
+	public void flush() {
+		flush(-1);
+	}
+
+	/**
+	 * @param onlyBatch only deliver if the pending batch is this one, or -1 for any
+	 */
+	private void flush(long onlyBatch) {
+		synchronized (deliveryLock) {
+			final List<E> batch;
+			synchronized (lock) {
+				if (events.isEmpty() || (onlyBatch != -1 && onlyBatch != batchNum)) {
+					return;
+				}
+				batch = events;
+				newBatch();
+			}
+			final List<E> unmodifiable = Collections.unmodifiableList(batch);
+			try {
+				listener.onBatch(unmodifiable);
+			} catch (Exception e) {
+				errorHandler.onBatchError(unmodifiable, e);
+			}
+		}
+	}
+
+	private static void uncaught(Throwable t) {
+		final Thread thread = Thread.currentThread();
+		final Thread.UncaughtExceptionHandler handler = thread.getUncaughtExceptionHandler();
+		if (handler != null) {
+			handler.uncaughtException(thread, t);
+		}
+	}
+
+	/**
+	 * The number of events waiting to be delivered, after coalescing
+	 */
+	public int getPendingCount() {
+		synchronized (lock) {
+			return events.size();
+		}
+	}
+
+	/**
+	 * Provides the key events are coalesced by
+	 *
+	 * @param <E> the event type
+	 */
+	public interface CoalescingKey<E> {
+
+		/**
+		 * @return the key, equal for events which supersede each other, or null if the event should never be replaced
+		 */
+		Object keyFor(E event);
+	}
+
+	/**
+	 * Told about batches the listener failed to handle
+	 *
+	 * @param <E> the event type
+	 */
+	public interface ErrorHandler<E> {
+
+		/**
+		 * Called on the delivering thread. The batch is dropped once this returns
+		 *
+		 * @param events the batch the listener threw on. Not modifiable
+		 * @param e what the listener threw
+		 */
+		void onBatchError(List<? extends E> events, Exception e);
+	}
+
+	public static class Builder<E> implements IBuilder<EventBatcher<E>> {
+		private BatchListener<E> listener;
+		private ErrorHandler<? super E> errorHandler = UNCAUGHT;
+		private int maxEvents = DEFAULT_MAX_EVENTS;
+		private long maxDelayNanos;
+		private ScheduledExecutorService scheduler;
+		private CoalescingKey<? super E> coalescingKey;
+
+		public Builder<E> listener(BatchListener<E> listener) {
+			this.listener = checkNotNull("listener", listener);
+			return this;
+		}
+
+		/**
+		 * Told when the listener throws, after which the batch is dropped. By default the exception is passed to the
+		 * delivering thread's {@link Thread.UncaughtExceptionHandler}
+		 */
+		public Builder<E> onError(ErrorHandler<? super E> errorHandler) {
+			this.errorHandler = checkNotNull("errorHandler", errorHandler);
+			return this;
+		}
+
+		/**
+		 * Deliver once this many events have been added, including any replaced ones. Defaults to
+		 * {@value EventBatcher#DEFAULT_MAX_EVENTS}
+		 */
+		public Builder<E> maxEvents(int maxEvents) {
+			checkTrue("maxEvents", maxEvents, maxEvents > 0, "greater than zero");
+			this.maxEvents = maxEvents;
+			return this;
+		}
+
+		/**
+		 * Deliver at most this long after the first event of a batch was added, scheduled on the given scheduler. By
+		 * default there is no delay limit, events are only delivered once the max events is reached or on flush
+		 */
+		public Builder<E> maxDelay(long delay, TimeUnit unit, ScheduledExecutorService scheduler) {
+			checkTrue("delay", delay, delay > 0, "greater than zero");
+			checkNotNull("unit", unit);
+			this.scheduler = checkNotNull("scheduler", scheduler);
+			this.maxDelayNanos = unit.toNanos(delay);
+			return this;
+		}
+
+		/**
+		 * Replace pending events with later ones with the same key. By default nothing is coalesced
+		 */
+		public Builder<E> coalesceBy(CoalescingKey<? super E> coalescingKey) {
+			this.coalescingKey = checkNotNull("coalescingKey", coalescingKey);
+			return this;
+		}
+
+		@Override
+		public EventBatcher<E> build() {
+			checkNotNull("listener", listener);
+			return new EventBatcher<E>(listener, errorHandler, maxEvents, maxDelayNanos, scheduler, coalescingKey);
+		}
+	}
+}
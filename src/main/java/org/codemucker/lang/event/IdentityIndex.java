@@ -0,0 +1,125 @@
+package org.codemucker.lang.event;
+
+/**
+ * An open addressing hash table from object identity to a long. Used copy-on-write: a published index is never changed,
+ * changes are made to a {@link #copy(int)} which is then published in its place.
+ */
+final class IdentityIndex {
+
+	static final long ABSENT = -1;
+
+	private static final int MIN_CAPACITY = 8;
+
+	static final IdentityIndex EMPTY = new IdentityIndex(MIN_CAPACITY);
+
+	private final Object[] keys;
+	private final long[] values;
+	private final int mask;
+	private int size;
+
+	private IdentityIndex(int capacity) {
+		keys = new Object[capacity];
+		values = new long[capacity];
+		mask = capacity - 1;
+	}
+
+	private IdentityIndex(IdentityIndex from) {
+		keys = from.keys.clone();
+		values = from.values.clone();
+		mask = from.mask;
+		size = from.size;
+	}
+
+	/**
+	 * @return the value for the given key, or {@link #ABSENT}
+	 */
+	long get(Object key) {
+		final Object[] keys = this.keys;
+		for (int i = slotFor(key);; i = (i + 1) & mask) {
+			final Object k = keys[i];
+			if (k == key) {
+				return values[i];
+			}
+			if (k == null) {
+				return ABSENT;
+			}
+		}
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * A copy of this index, with room for the given number of entries
+	 */
+	IdentityIndex copy(int expectedSize) {
+		final int capacity = capacityFor(expectedSize);
+		if (keys.length >= capacity && keys.length <= capacity * 4) {
+			//leave room to shrink, so churn around a size doesn't rehash each time
+			return new IdentityIndex(this);
+		}
+		final IdentityIndex copy = new IdentityIndex(capacity);
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != null) {
+				copy.put(keys[i], values[i]);
+			}
+		}
+		return copy;
+	}
+
+	/**
+	 * Add an entry. Only to be called on an unpublished copy, with room for it, for a key not already present
+	 */
+	void put(Object key, long value) {
+		int i = slotFor(key);
+		while (keys[i] != null) {
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		values[i] = value;
+		size++;
+	}
+
+	/**
+	 * Remove an entry. Only to be called on an unpublished copy
+	 */
+	void remove(Object key) {
+		int i = slotFor(key);
+		while (keys[i] != key) {
+			if (keys[i] == null) {
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = null;
+		size--;
+		//shift back any following entries which would no longer be found past the gap
+		for (int j = (i + 1) & mask; keys[j] != null; j = (j + 1) & mask) {
+			final int home = slotFor(keys[j]);
+			final boolean movable = i <= j ? (home <= i || home > j) : (home <= i && home > j);
+			if (movable) {
+				keys[i] = keys[j];
+				values[i] = values[j];
+				keys[j] = null;
+				i = j;
+			}
+		}
+	}
+
+	private int slotFor(Object key) {
+		final int h = System.identityHashCode(key) * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	/**
+	 * Keep the table at most half full
+	 */
+	private static int capacityFor(int size) {
+		int capacity = MIN_CAPACITY;
+		while (capacity < size * 2) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+}
@@ -0,0 +1,22 @@
+package org.codemucker.lang.event;
+
+/**
+ * Invokes one listener for an event, used to dispatch via a registry's fire method. Implementations should be
+ * stateless and shared (e.g. held in a static field), so firing an event doesn't create any garbage
+ *
+ * <p>Usage:
+ * <pre>
+ * private static final ListenerCallback&lt;MyListener, MyEvent&gt; ON_MY_EVENT = new ListenerCallback&lt;MyListener, MyEvent&gt;() {
+ *		public void call(MyListener listener, MyEvent evt) {
+ *			listener.onMyEvent(evt);
+ *		}
+ *	};
+ * </pre>
+ * </p>
+ * @param <L> the listener type
+ * @param <E> the event type
+ */
+public interface ListenerCallback<L, E> {
+
+	void call(L listener, E event) throws Exception;
+}
@@ -0,0 +1,299 @@
+package org.codemucker.lang.event;
+
+import static org.codemucker.lang.Check.checkNotNull;
+import static org.codemucker.lang.Check.checkTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.codemucker.lang.annotation.ThreadSafe;
+
+/**
+ * A registry which delivers events via a pre-allocated ring of reusable event objects, in the style of the LMAX
+ * Disruptor, for very high event rates without garbage.
+ *
+ * <p>Producers claim the next slot, write the event into the slot's object via an {@link EventWriter}, and publish it.
+ * A single consumer thread delivers each published event to all the listeners in order, as per
+ * {@link #fire(ListenerCallback, Object)}. When the ring is full, producers either wait for the consumer to free up a
+ * slot ({@link #publish(EventWriter, Object)}), or are told it's full ({@link #tryPublish(EventWriter, Object)}). Both
+ * sides wait as per their {@link WaitStrategy}.</p>
+ *
+ * <p>A listener which throws an exception is passed to {@link #onListenerError(Object, Exception)}. Anything else it
+ * throws, such as an {@link Error}, is passed to the consumer thread's {@link Thread.UncaughtExceptionHandler}, and
+ * delivery carries on</p>
+ *
+ * <p>Nothing is allocated per event, provided the writers are shared and their args not boxed. As the event objects are
+ * reused, listeners must copy out anything they need to keep, and not hold on to the event after the call</p>
+ *
+ * <p>Usage:
+ * <pre>
+ * MyDispatcher extends RingBufferDispatcher&lt;MyListener, MyEvent&gt; {....
+ * 
+ * private static final EventWriter&lt;MyEvent, MyData&gt; WRITE = ...;
+ * 
+ * public void onMyData(MyData data) {
+ *		publish(WRITE, data);
+ *	}
+ * </pre>
+ * </p>
+ * @param <L> the listener type
+ * @param <E> the event type
+ */
+@ThreadSafe
+public abstract class RingBufferDispatcher<L, E> extends CopyOnWriteListenerRegistry<L> {
+
+	private static final long NONE = -1;
+	/**
+	 * Added to the claimed sequence by the consumer once stopped, so later claims are known to be too late
+	 */
+	private static final long CLOSED = 1L << 62;
+
+	private final E[] slots;
+	private final int mask;
+	private final ListenerCallback<? super L, ? super E> callback;
+	private final WaitStrategy producerWait;
+	private final WaitStrategy consumerWait;
+
+	/**
+	 * The sequence of the last event each slot was published with
+	 */
+	private final AtomicLongArray published;
+	/**
+	 * The next sequence to be claimed by a producer
+	 */
+	private final AtomicLong claimed = new AtomicLong(0);
+	/**
+	 * The claimed sequence when the consumer closed the ring, after which nothing more is delivered, or NONE if open
+	 */
+	private volatile long closedAt = NONE;
+	/**
+	 * The sequence of the last event delivered, so its slot can be reused
+	 */
+	private final AtomicLong consumed = new AtomicLong(NONE);
+
+	private final AtomicBoolean started = new AtomicBoolean();
+	private volatile boolean running;
+	private final CountDownLatch stopped = new CountDownLatch(1);
+
+	/**
+	 * @param size the number of slots, rounded up to a power of two
+	 * @param factory creates the reusable event objects, called once per slot up front
+	 * @param callback delivers an event to a listener
+	 */
+	protected RingBufferDispatcher(int size, EventFactory<E> factory, ListenerCallback<? super L, ? super E> callback, WaitStrategy producerWait, WaitStrategy consumerWait) {
+		checkTrue("size", size, size > 0 && size <= 1 << 30, "between 1 and 2^30");
+		checkNotNull("factory", factory);
+		this.callback = guarded(checkNotNull("callback", callback));
+		this.producerWait = checkNotNull("producerWait", producerWait);
+		this.consumerWait = checkNotNull("consumerWait", consumerWait);
+		int capacity = 1;
+		while (capacity < size) {
+			capacity <<= 1;
+		}
+		slots = newEventArray(capacity);
+		published = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			slots[i] = checkNotNull("event", factory.newEvent());
+			published.set(i, NONE);
+		}
+		mask = capacity - 1;
+	}
+
+	/**
+	 * Passes errors other than exceptions to the uncaught exception handler, so they don't end the consumer loop
+	 */
+	private static <L, E> ListenerCallback<L, E> guarded(final ListenerCallback<? super L, ? super E> callback) {
+		return new ListenerCallback<L, E>() {
+			@Override
+			public void call(L listener, E event) throws Exception {
+				try {
+					callback.call(listener, event);
+				} catch (Error e) {
+					final Thread thread = Thread.currentThread();
+					final Thread.UncaughtExceptionHandler handler = thread.getUncaughtExceptionHandler();
+					if (handler != null) {
+						handler.uncaughtException(thread, e);
+					}
+				}
+			}
+		};
+	}
+
+	@SuppressWarnings("unchecked")
+	private E[] newEventArray(int length) {
+		return (E[]) new Object[length];
+	}
+
+	/**
+	 * Start delivering events, running the consumer loop as a single long running task on the given executor. Events
+	 * can be published before starting, up to the ring size
+	 *
+	 * @throws IllegalStateException if already started
+	 */
+	public void start(Executor executor) {
+		checkNotNull("executor", executor);
+		if (!started.compareAndSet(false, true)) {
+			throw new IllegalStateException("Dispatcher already started");
+		}
+		running = true;
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				consume();
+			}
+		});
+	}
+
+	/**
+	 * Stop delivering events once all those already published, or being published, have been delivered. A publish which
+	 * returns normally is always delivered, later ones fail
+	 */
+	public void stop() {
+		running = false;
+	}
+
+	/**
+	 * Wait for the consumer to stop after a call to {@link #stop()}
+	 *
+	 * @return true if stopped, false if timed out
+	 */
+	public boolean awaitStopped(long timeout, TimeUnit unit) throws InterruptedException {
+		return stopped.await(timeout, unit);
+	}
+
+	/**
+	 * Write and publish an event into the next slot, waiting for one to be free if the ring is full
+	 *
+	 * @throws IllegalStateException if the dispatcher was stopped, in which case nothing was published
+	 */
+	public <A> void publish(EventWriter<? super E, ? super A> writer, A arg) {
+		checkNotStopped();
+		final long seq = claimed.getAndIncrement();
+		checkNotClosed(seq);
+		//the slot's previous event must have been delivered, which the consumer does before stopping
+		final long wrapPoint = seq - slots.length;
+		for (int attempt = 0; consumed.get() < wrapPoint; attempt++) {
+			if (stopped.getCount() == 0) {
+				//the consumer died
+				throw new IllegalStateException("Dispatcher stopped");
+			}
+			producerWait.idle(attempt);
+		}
+		write(seq, writer, arg);
+	}
+
+	/**
+	 * Write and publish an event into the next slot if there's room
+	 *
+	 * @throws IllegalStateException if the dispatcher was stopped
+	 * @return false if the ring is full, nothing was published
+	 */
+	public <A> boolean tryPublish(EventWriter<? super E, ? super A> writer, A arg) {
+		checkNotStopped();
+		while (true) {
+			final long seq = claimed.get();
+			checkNotClosed(seq);
+			if (consumed.get() < seq - slots.length) {
+				return false;
+			}
+			if (claimed.compareAndSet(seq, seq + 1)) {
+				write(seq, writer, arg);
+				return true;
+			}
+		}
+	}
+
+	private void checkNotStopped() {
+		if (!running && started.get()) {
+			throw new IllegalStateException("Dispatcher stopped");
+		}
+	}
+
+	/**
+	 * Claims made after the consumer closed the ring would never be delivered
+	 */
+	private static void checkNotClosed(long seq) {
+		if (seq >= CLOSED) {
+			throw new IllegalStateException("Dispatcher stopped");
+		}
+	}
+
+	private <A> void write(long seq, EventWriter<? super E, ? super A> writer, A arg) {
+		final int index = (int) seq & mask;
+		try {
+			writer.write(slots[index], arg);
+		} finally {
+			//always publish, else the consumer would wait on this slot forever
+			published.lazySet(index, seq);
+		}
+	}
+
+	/**
+	 * The number of events published but not yet delivered, or still being written
+	 */
+	public long getBacklog() {
+		long end = claimed.get();
+		if (end >= CLOSED) {
+			final long at = closedAt;
+			end = at == NONE ? end - CLOSED : at;
+		}
+		return end - consumed.get() - 1;
+	}
+
+	public int getCapacity() {
+		return slots.length;
+	}
+
+	private void consume() {
+		try {
+			long next = consumed.get() + 1;
+			long end = NONE;
+			int attempt = 0;
+			while (true) {
+				final int index = (int) next & mask;
+				if (published.get(index) == next) {
+					fire(callback, slots[index]);
+					consumed.lazySet(next);
+					next++;
+					attempt = 0;
+					continue;
+				}
+				if (end == NONE && !running) {
+					//close the ring, then deliver everything claimed before it closed, some may still be being written
+					end = claimed.getAndAdd(CLOSED);
+					closedAt = end;
+				}
+				if (end != NONE && next >= end) {
+					return;
+				}
+				consumerWait.idle(attempt++);
+			}
+		} finally {
+			running = false;
+			stopped.countDown();
+		}
+	}
+
+	/**
+	 * Creates the reusable event objects
+	 *
+	 * @param <E> the event type
+	 */
+	public interface EventFactory<E> {
+		E newEvent();
+	}
+
+	/**
+	 * Writes an event into a reused event object. Implementations should be shared, so publishing allocates nothing
+	 *
+	 * @param <E> the event type
+	 * @param <A> the data the event is written from
+	 */
+	public interface EventWriter<E, A> {
+		void write(E event, A arg);
+	}
+}
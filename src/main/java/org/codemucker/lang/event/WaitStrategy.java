@@ -0,0 +1,55 @@
+package org.codemucker.lang.event;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How a thread waits for a {@link RingBufferDispatcher} to have something for it, trading CPU use for latency. None of
+ * them allocate, or need the other side to signal them
+ */
+public enum WaitStrategy {
+
+	/**
+	 * Busy spin. Lowest latency, but burns a whole core while waiting
+	 */
+	SPIN {
+		@Override
+		void idle(int attempt) {
+			//just try again
+		}
+	},
+	/**
+	 * Spin briefly, then yield to other threads. Low latency while leaving the core to others if needed
+	 */
+	YIELD {
+		@Override
+		void idle(int attempt) {
+			if (attempt >= SPIN_TRIES) {
+				Thread.yield();
+			}
+		}
+	},
+	/**
+	 * Spin and yield briefly, then sleep for short periods. Least CPU, highest latency
+	 */
+	PARK {
+		@Override
+		void idle(int attempt) {
+			if (attempt >= SPIN_TRIES + YIELD_TRIES) {
+				LockSupport.parkNanos(PARK_NANOS);
+			} else if (attempt >= SPIN_TRIES) {
+				Thread.yield();
+			}
+		}
+	};
+
+	private static final int SPIN_TRIES = 100;
+	private static final int YIELD_TRIES = 100;
+	private static final long PARK_NANOS = 50 * 1000;
+
+	/**
+	 * Wait a bit before trying again
+	 *
+	 * @param attempt how many times idle has been called in a row, from zero
+	 */
+	abstract void idle(int attempt);
+}
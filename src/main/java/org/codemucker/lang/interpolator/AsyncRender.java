@@ -0,0 +1,94 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Collects the asynchronously resolved values of a template's variables, rendering it once the last one arrives
+ */
+final class AsyncRender implements AsyncVariableResolver.Callback, VariableResolver {
+
+    /**
+     * Stands in for null values, as the map can't hold them
+     */
+    private static final Object NULL = new Object();
+
+    private final Template template;
+    private final RenderFuture future = new RenderFuture();
+    private final ConcurrentMap<String, Object> values;
+    private final AtomicInteger remaining;
+    private final Set<String> names;
+
+    private AsyncRender(final Template template, final Set<String> names) {
+        this.template = template;
+        this.names = names;
+        this.values = new ConcurrentHashMap<String, Object>(names.size() * 2);
+        this.remaining = new AtomicInteger(names.size());
+    }
+
+    static RenderFuture render(final Template template, final AsyncVariableResolver resolver) {
+        final int numVars = template.getNumVars();
+        if (numVars == 0) {
+            return RenderFuture.completed(template.getSource());
+        }
+        final Set<String> names = new LinkedHashSet<String>();
+        for (int i = 0; i < numVars; i++) {
+            names.add(template.getVarName(i));
+        }
+        final AsyncRender render = new AsyncRender(template, names);
+        try {
+            resolver.resolveAll(Collections.unmodifiableSet(names), render);
+        } catch (final RuntimeException e) {
+            render.future.fail(e);
+        }
+        return render.future;
+    }
+
+    @Override
+    public void onResolved(final String name, final Object value) {
+        if (!names.contains(name) || values.putIfAbsent(name, value == null ? NULL : value) != null) {
+            return;
+        }
+        if (remaining.decrementAndGet() == 0 && !future.isDone()) {
+            try {
+                future.complete(template.renderWith(this));
+            } catch (final RuntimeException e) {
+                future.fail(e);
+            } catch (final Error e) {
+                //e.g. from a value's toString(), fail rather than leave the render pending forever
+                future.fail(e);
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public void onFailed(final String name, final Throwable error) {
+        future.fail(error != null ? error : new RuntimeException("Error resolving variable '" + name + "'"));
+    }
+
+    @Override
+    public Object resolve(final String name) {
+        final Object value = values.get(name);
+        return value == NULL ? null : value;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import java.util.Set;
+
+/**
+ * Looks up a batch of variables asynchronously, such as from a slow backend. Used by
+ * {@link Template#renderAsync(AsyncVariableResolver)} to resolve all of a template's variables at once, so a render
+ * takes as long as the slowest lookup rather than the sum of them. See {@link Resolvers#async(VariableResolver, java.util.concurrent.Executor)}
+ * to look up each variable concurrently via a plain resolver.
+ */
+public interface AsyncVariableResolver {
+
+    /**
+     * Start looking up the given variables, and return. Each is to be reported to the callback exactly once, from any
+     * thread, in any order. Reporting the same name again is ignored.
+     */
+    void resolveAll(Set<String> names, Callback callback);
+
+    interface Callback {
+        /**
+         * @param value the value, null for no value, or {@link VariableResolver#ABSENT} if the variable is unknown
+         */
+        void onResolved(String name, Object value);
+
+        /**
+         * Fails the whole render
+         */
+        void onFailed(String name, Throwable error);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import static org.codemucker.lang.Check.checkNotNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Renders one template against many variable sources in parallel. The sources are split into contiguous chunks, each
+ * rendered by one task into a per thread buffer which is reused between renders.
+ */
+final class BatchRenderer {
+
+    /**
+     * Enough chunks per thread to even out uneven render costs
+     */
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final int MIN_CHUNK_SIZE = 16;
+    /**
+     * Don't hold on to buffers grown by unusually large renders
+     */
+    private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+
+    private static final ThreadLocal<StringBuilder> BUFFERS = new ThreadLocal<StringBuilder>();
+
+    private BatchRenderer(){
+        //static only
+    }
+
+    static List<String> renderAll(final Template template, final List<? extends VariableResolver> resolvers, final Executor executor) {
+        final String[] results = new String[resolvers.size()];
+        renderAll(template, resolvers, executor, new RenderSink() {
+            @Override
+            public void onRendered(final int index, final CharSequence output) {
+                results[index] = output.toString();
+            }
+        });
+        return Collections.unmodifiableList(Arrays.asList(results));
+    }
+
+    /**
+     * Render the template against each of the resolvers, passing the results to the sink. Blocks until all are rendered.
+     *
+     * @throws RuntimeException if any render failed, wrapping the first failure
+     */
+    static void renderAll(final Template template, final List<? extends VariableResolver> resolvers, final Executor executor, final RenderSink sink) {
+        checkNotNull("template", template);
+        checkNotNull("resolvers", resolvers);
+        checkNotNull("executor", executor);
+        checkNotNull("sink", sink);
+
+        final int size = resolvers.size();
+        if (size == 0) {
+            return;
+        }
+        final int chunkSize = Math.max(MIN_CHUNK_SIZE, (size + ParallelTasks.PARALLELISM * CHUNKS_PER_THREAD - 1) / (ParallelTasks.PARALLELISM * CHUNKS_PER_THREAD));
+        final Runnable[] tasks = new Runnable[(size + chunkSize - 1) / chunkSize];
+        for (int i = 0; i < tasks.length; i++) {
+            final int from = i * chunkSize;
+            final int to = Math.min(size, from + chunkSize);
+            tasks[i] = new Runnable() {
+                @Override
+                public void run() {
+                    renderRange(template, resolvers, from, to, sink);
+                }
+            };
+        }
+        ParallelTasks.runAll(executor, tasks, "rendering template '" + template.getSource() + "'");
+    }
+
+    private static void renderRange(final Template template, final List<? extends VariableResolver> resolvers, final int from, final int to, final RenderSink sink) {
+        StringBuilder sb = BUFFERS.get();
+        if (sb == null) {
+            sb = new StringBuilder(template.estimateLength());
+            BUFFERS.set(sb);
+        }
+        for (int i = from; i < to; i++) {
+            sb.setLength(0);
+            template.renderWith(resolvers.get(i), sb);
+            sink.onRendered(i, sb);
+        }
+        if (sb.capacity() > MAX_RETAINED_BUFFER) {
+            BUFFERS.remove();
+        }
+    }
+}
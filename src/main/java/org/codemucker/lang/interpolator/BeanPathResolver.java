@@ -0,0 +1,234 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import static org.codemucker.lang.Check.checkNotNull;
+
+import java.lang.ref.SoftReference;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.codemucker.lang.BeanNameUtil;
+import org.codemucker.lang.annotation.ThreadSafe;
+
+/**
+ * Resolves dotted property paths such as <pre>${order.customer.name}</pre> against a root object, so templates can be
+ * rendered straight from domain objects.
+ *
+ * <p>Each part of the path is read via its getter, named as per {@link BeanNameUtil#toGetterName(String, Class)}, or
+ * looked up by key if the current object is a map. A null part along the way renders as empty, a property with no getter
+ * is unknown and is left as is.</p>
+ *
+ * <p>The getter chain is looked up once per (class, path) using the declared return types, and cached for all resolvers,
+ * so resolving a path costs a cache lookup plus a reflective call per part. Parts whose declared type is too loose to
+ * find the getter on (e.g. Object) are looked up on the runtime class, also cached</p>
+ *
+ * <p>The caches don't stop the bean classes, or their class loaders, from being unloaded (e.g. on redeploying an app in
+ * a container). They are weakly keyed by class, and as the cached getters refer back to their classes, the per class
+ * entries are only softly held, so are dropped under memory pressure once the class is otherwise unused</p>
+ */
+@ThreadSafe
+public class BeanPathResolver implements VariableResolver {
+
+    /**
+     * Guarded by itself
+     */
+    private static final Map<Class<?>, SoftReference<ClassCache>> CACHES = new WeakHashMap<Class<?>, SoftReference<ClassCache>>();
+
+    /**
+     * Marks a property as having no getter, as the cache can't hold nulls
+     */
+    private static final Getter NO_GETTER = new Getter(null);
+
+    private final Object root;
+    /**
+     * Looked up once per resolver, to keep the shared lock off the per variable path
+     */
+    private final ClassCache rootCache;
+
+    public BeanPathResolver(final Object root) {
+        this.root = checkNotNull("root", root);
+        this.rootCache = cacheFor(root.getClass());
+    }
+
+    @Override
+    public Object resolve(final String name) {
+        if (root instanceof Map) {
+            //a whole dotted name as a key wins
+            final Map<?, ?> map = (Map<?, ?>) root;
+            final Object value = map.get(name);
+            if (value != null || map.containsKey(name)) {
+                return value;
+            }
+        }
+        return rootCache.pathFor(name).resolve(root);
+    }
+
+    private static ClassCache cacheFor(final Class<?> type) {
+        synchronized (CACHES) {
+            final SoftReference<ClassCache> ref = CACHES.get(type);
+            ClassCache cache = ref == null ? null : ref.get();
+            if (cache == null) {
+                cache = new ClassCache(type);
+                CACHES.put(type, new SoftReference<ClassCache>(cache));
+            }
+            return cache;
+        }
+    }
+
+    private static Getter getterFor(final Class<?> type, final String property) {
+        return cacheFor(type).getterFor(property);
+    }
+
+    private static <K, V> V putIfAbsent(final ConcurrentMap<K, V> map, final K key, final V value) {
+        final V existing = map.putIfAbsent(key, value);
+        return existing == null ? value : existing;
+    }
+
+    private static Getter findGetter(final Class<?> type, final String property) {
+        if (property.length() == 0) {
+            return NO_GETTER;
+        }
+        Method m = findNoArgMethod(type, BeanNameUtil.toGetterName(property, false));
+        if (m == null) {
+            m = findNoArgMethod(type, BeanNameUtil.toGetterName(property, true));
+            //only allow 'is' getters for booleans
+            if (m != null && !m.getName().equals(BeanNameUtil.toGetterName(property, m.getReturnType()))) {
+                m = null;
+            }
+        }
+        return m == null ? NO_GETTER : new Getter(m);
+    }
+
+    private static Method findNoArgMethod(final Class<?> type, final String name) {
+        try {
+            final Method m = type.getMethod(name);
+            if (Modifier.isStatic(m.getModifiers()) || m.getReturnType() == void.class) {
+                return null;
+            }
+            if (!Modifier.isPublic(m.getDeclaringClass().getModifiers())) {
+                //public method on a non public class, e.g. an anonymous or private inner class
+                try {
+                    m.setAccessible(true);
+                } catch (final SecurityException e) {
+                    return null;
+                }
+            }
+            return m;
+        } catch (final NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The compiled paths and getters for a single class
+     */
+    private static class ClassCache {
+        private final Class<?> type;
+        private final ConcurrentMap<String, PropertyPath> paths = new ConcurrentHashMap<String, PropertyPath>();
+        private final ConcurrentMap<String, Getter> getters = new ConcurrentHashMap<String, Getter>();
+
+        ClassCache(final Class<?> type) {
+            this.type = type;
+        }
+
+        PropertyPath pathFor(final String path) {
+            final PropertyPath compiled = paths.get(path);
+            return compiled != null ? compiled : putIfAbsent(paths, path, new PropertyPath(type, path));
+        }
+
+        Getter getterFor(final String property) {
+            final Getter getter = getters.get(property);
+            return getter != null ? getter : putIfAbsent(getters, property, findGetter(type, property));
+        }
+    }
+
+    /**
+     * The getters for each part of a path, as found via the declared types starting from the root class. A null getter
+     * means it has to be looked up on the runtime class
+     */
+    private static class PropertyPath {
+        private final String[] parts;
+        private final Getter[] getters;
+
+        PropertyPath(final Class<?> rootType, final String path) {
+            parts = path.split("\\.", -1);
+            getters = new Getter[parts.length];
+            Class<?> type = rootType;
+            for (int i = 0; i < parts.length && type != null; i++) {
+                if (Map.class.isAssignableFrom(type)) {
+                    break;
+                }
+                final Getter getter = getterFor(type, parts[i]);
+                if (getter == NO_GETTER) {
+                    break;
+                }
+                getters[i] = getter;
+                type = getter.method.getReturnType();
+            }
+        }
+
+        Object resolve(Object value) {
+            for (int i = 0; i < parts.length; i++) {
+                if (value == null) {
+                    return null;
+                }
+                if (value instanceof Map) {
+                    final Map<?, ?> map = (Map<?, ?>) value;
+                    final String key = parts[i];
+                    final Object next = map.get(key);
+                    if (next == null && !map.containsKey(key)) {
+                        return ABSENT;
+                    }
+                    value = next;
+                } else {
+                    Getter getter = getters[i];
+                    if (getter == null) {
+                        getter = getterFor(value.getClass(), parts[i]);
+                        if (getter == NO_GETTER) {
+                            return ABSENT;
+                        }
+                    }
+                    value = getter.get(value);
+                }
+            }
+            return value;
+        }
+    }
+
+    private static class Getter {
+        final Method method;
+
+        Getter(final Method method) {
+            this.method = method;
+        }
+
+        Object get(final Object target) {
+            try {
+                return method.invoke(target);
+            } catch (final IllegalAccessException e) {
+                throw new RuntimeException("Couldn't access getter " + method, e);
+            } catch (final InvocationTargetException e) {
+                throw new RuntimeException("Error invoking getter " + method, e.getCause());
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * The byte equivalent of the {@link TemplateScanner}, for input encoded in an ascii compatible charset, where the
+ * '$', '{' and '}' bytes can only ever mean those chars (so never part of a multi-byte char). Literal runs are never
+ * decoded, only the variable names.
+ *
+ * <p>All positions are absolute positions in the buffer, the buffer's own position and limit are ignored</p>
+ */
+final class ByteTemplateScanner {
+
+    private static final byte DOLLAR = '$';
+    private static final byte OPEN = '{';
+    private static final byte CLOSE = '}';
+
+    /**
+     * Receives the parts of the scanned input, in order
+     */
+    interface Handler {
+        void onLiteral(ByteBuffer src, int start, int end) throws IOException;
+
+        void onVar(ByteBuffer src, int tokenStart, int tokenEnd, String varName) throws IOException;
+    }
+
+    private ByteTemplateScanner(){
+        //static only
+    }
+
+    /**
+     * Whether the scanner can be used on input in the given charset
+     */
+    public static boolean isSupported(final Charset charset) {
+        final String name = charset.name();
+        return "UTF-8".equals(name) || "US-ASCII".equals(name) || name.startsWith("ISO-8859-");
+    }
+
+    /**
+     * Scan the given range of the input. See {@link TemplateScanner#scan(CharSequence, int, int, boolean, TemplateScanner.Handler)}
+     *
+     * @return the position up to which the input was passed to the handler. Always the end if endOfInput is true
+     */
+    public static int scan(final ByteBuffer src, final int start, final int end, final boolean endOfInput, final Charset charset, final Handler handler) throws IOException {
+        int literalStart = start;
+        int pos = start;
+        while (pos < end) {
+            final int dollar = indexOf(src, DOLLAR, pos, end);
+            if (dollar == -1) {
+                break;
+            }
+            if (dollar + 1 >= end) {
+                if (!endOfInput) {
+                    return flushLiteral(src, literalStart, dollar, handler);
+                }
+                break;
+            }
+            if (src.get(dollar + 1) != OPEN) {
+                pos = dollar + 1;
+                continue;
+            }
+            int tokenEnd = dollar + 2;
+            byte b = 0;
+            while (tokenEnd < end) {
+                b = src.get(tokenEnd);
+                if (b == CLOSE || b == DOLLAR) {
+                    break;
+                }
+                tokenEnd++;
+            }
+            if (tokenEnd >= end) {
+                if (!endOfInput) {
+                    return flushLiteral(src, literalStart, dollar, handler);
+                }
+                break;
+            }
+            if (b == DOLLAR) {
+                pos = tokenEnd;
+                continue;
+            }
+            if (dollar > literalStart) {
+                handler.onLiteral(src, literalStart, dollar);
+            }
+            handler.onVar(src, dollar, tokenEnd + 1, decodeName(src, dollar + 2, tokenEnd, charset));
+            literalStart = tokenEnd + 1;
+            pos = literalStart;
+        }
+        return flushLiteral(src, literalStart, end, handler);
+    }
+
+    private static int flushLiteral(final ByteBuffer src, final int start, final int end, final Handler handler) throws IOException {
+        if (end > start) {
+            handler.onLiteral(src, start, end);
+        }
+        return end;
+    }
+
+    private static String decodeName(final ByteBuffer src, int start, int end, final Charset charset) {
+        while (start < end && (src.get(start) & 0xFF) <= ' ') {
+            start++;
+        }
+        while (end > start && (src.get(end - 1) & 0xFF) <= ' ') {
+            end--;
+        }
+        //names are nearly always plain ascii, which decodes the same in all the supported charsets
+        final char[] chars = new char[end - start];
+        for (int i = start; i < end; i++) {
+            final byte b = src.get(i);
+            if (b < 0) {
+                final ByteBuffer name = src.duplicate();
+                name.limit(end).position(start);
+                return charset.decode(name).toString();
+            }
+            chars[i - start] = (char) b;
+        }
+        return new String(chars);
+    }
+
+    static int indexOf(final ByteBuffer src, final byte b, final int from, final int to) {
+        if (src.hasArray()) {
+            final byte[] array = src.array();
+            final int offset = src.arrayOffset();
+            for (int i = from + offset, last = to + offset; i < last; i++) {
+                if (array[i] == b) {
+                    return i - offset;
+                }
+            }
+            return -1;
+        }
+        for (int i = from; i < to; i++) {
+            if (src.get(i) == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import static org.codemucker.lang.Check.checkNotNull;
+import static org.codemucker.lang.Check.checkTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.codemucker.lang.annotation.ThreadSafe;
+
+/**
+ * I interpolate from one byte channel to another using a fixed amount of memory, no matter how large the input.
+ *
+ * <p>Input is decoded a buffer at a time. A token which straddles a buffer boundary is carried over to the start of
+ * the next buffer, so is resolved as normal. The one limit is that a token can't be longer than the buffer size; such
+ * a token is output as is, which is the same as would happen unless there is a variable with that long a name</p>
+ *
+ * <p>Buffers are pooled and reused between calls. Channels are expected to be blocking</p>
+ */
+@ThreadSafe
+public class ChannelInterpolator {
+
+    public static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+
+    private static final int MIN_BUFFER_SIZE = 16;
+
+    private final int bufferSize;
+    private final Delimiters delimiters;
+
+    private final Queue<Buffers> pool = new ConcurrentLinkedQueue<Buffers>();
+
+    public ChannelInterpolator() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param bufferSize the size of each of the input and output buffers, in chars (and bytes)
+     */
+    public ChannelInterpolator(final int bufferSize) {
+        this(bufferSize, Delimiters.DEFAULT);
+    }
+
+    /**
+     * @param bufferSize the size of each of the input and output buffers, in chars (and bytes)
+     * @param delimiters what marks the tokens in the input
+     */
+    public ChannelInterpolator(final int bufferSize, final Delimiters delimiters) {
+        checkTrue("bufferSize", bufferSize, bufferSize >= MIN_BUFFER_SIZE, "at least " + MIN_BUFFER_SIZE);
+        this.bufferSize = bufferSize;
+        this.delimiters = checkNotNull("delimiters", delimiters);
+    }
+
+    /**
+     * Interpolate all of the input channel to the output channel, using the given charset for both. Neither channel is closed
+     */
+    public void interpolate(final ReadableByteChannel in, final WritableByteChannel out, final Map<String, ?> vars, final Charset charset) throws IOException {
+        interpolateWith(in, out, vars == null || vars.size() == 0 ? null : Resolvers.fromMap(vars), charset);
+    }
+
+    /**
+     * Interpolate all of the input channel to the output channel, using the given charset for both. A null resolver
+     * copies the input as is. Neither channel is closed
+     */
+    public void interpolateWith(final ReadableByteChannel in, final WritableByteChannel out, final VariableResolver resolver, final Charset charset) throws IOException {
+        checkNotNull("inputChannel", in);
+        checkNotNull("outputChannel", out);
+        checkNotNull("charset", charset);
+
+        final Buffers buffers = acquire();
+        try {
+            if (resolver == null) {
+                copy(in, out, buffers.inBytes);
+            } else {
+                final RenderProbe probe = RenderProbe.start(resolver);
+                if (probe == null) {
+                    interpolate(in, out, resolver, charset, delimiters, buffers);
+                } else {
+                    interpolate(in, out, probe, charset, delimiters, buffers);
+                    probe.finish(null, -1, -1);
+                }
+            }
+        } finally {
+            release(buffers);
+        }
+    }
+
+    private static void copy(final ReadableByteChannel in, final WritableByteChannel out, final ByteBuffer buf) throws IOException {
+        while (in.read(buf) != -1) {
+            buf.flip();
+            writeFully(out, buf);
+            buf.clear();
+        }
+    }
+
+    private static void interpolate(final ReadableByteChannel in, final WritableByteChannel out, final VariableResolver resolver, final Charset charset, final Delimiters delimiters, final Buffers buffers) throws IOException {
+        final CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        final ByteBuffer inBytes = buffers.inBytes;
+        final CharBuffer chars = buffers.inChars;
+        final ChannelWriter writer = new ChannelWriter(out, resolver, charset, buffers);
+
+        boolean endOfInput = false;
+        boolean decoded = false;
+        boolean done = false;
+        while (!done) {
+            if (!decoded) {
+                if (!endOfInput && inBytes.hasRemaining() && in.read(inBytes) == -1) {
+                    endOfInput = true;
+                }
+                inBytes.flip();
+                final CoderResult result = decoder.decode(inBytes, chars, endOfInput);
+                inBytes.compact();
+                decoded = endOfInput && result.isUnderflow();
+            }
+            if (decoded) {
+                //only once all the input has been decoded
+                done = decoder.flush(chars).isUnderflow();
+            }
+            chars.flip();
+            final int len = chars.remaining();
+            int consumed = TemplateScanner.scan(chars, 0, len, done, delimiters, writer);
+            if (consumed == 0 && len == chars.capacity()) {
+                //a token longer than the buffer, can't be a var we know of so output as is
+                writer.onLiteral(chars, 0, len);
+                consumed = len;
+            }
+            chars.position(consumed);
+            chars.compact();
+        }
+        writer.finish();
+    }
+
+    private static void writeFully(final WritableByteChannel out, final ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+    }
+
+    private Buffers acquire() {
+        final Buffers buffers = pool.poll();
+        return buffers == null ? new Buffers(bufferSize) : buffers;
+    }
+
+    private void release(final Buffers buffers) {
+        buffers.clear();
+        pool.offer(buffers);
+    }
+
+    private static class Buffers {
+        final ByteBuffer inBytes;
+        final CharBuffer inChars;
+        final CharBuffer outChars;
+        final ByteBuffer outBytes;
+
+        Buffers(final int size) {
+            inBytes = ByteBuffer.allocate(size);
+            inChars = CharBuffer.allocate(size);
+            outChars = CharBuffer.allocate(size);
+            outBytes = ByteBuffer.allocate(size);
+        }
+
+        void clear() {
+            inBytes.clear();
+            inChars.clear();
+            outChars.clear();
+            outBytes.clear();
+        }
+    }
+
+    /**
+     * Collects the output chars, encoding and writing them to the channel each time the buffer fills
+     */
+    private static class ChannelWriter implements TemplateScanner.Handler {
+        private final WritableByteChannel out;
+        private final VariableResolver resolver;
+        private final CharsetEncoder encoder;
+        private final CharBuffer chars;
+        private final ByteBuffer bytes;
+
+        ChannelWriter(final WritableByteChannel out, final VariableResolver resolver, final Charset charset, final Buffers buffers) {
+            this.out = out;
+            this.resolver = resolver;
+            this.encoder = charset.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            this.chars = buffers.outChars;
+            this.bytes = buffers.outBytes;
+        }
+
+        @Override
+        public void onLiteral(final CharSequence src, final int start, final int end) throws IOException {
+            write(src, start, end);
+        }
+
+        @Override
+        public void onVar(final CharSequence src, final int tokenStart, final int tokenEnd, final String varName) throws IOException {
+            final Object varVal = resolver.resolve(varName);
+            if (varVal == VariableResolver.ABSENT) {
+                write(src, tokenStart, tokenEnd);
+            } else if (varVal != null) {
+                final String s = varVal.toString();
+                write(s, 0, s.length());
+            }
+        }
+
+        private void write(final CharSequence src, int start, final int end) throws IOException {
+            while (start < end) {
+                if (!chars.hasRemaining()) {
+                    encode(false);
+                }
+                final int n = Math.min(chars.remaining(), end - start);
+                put(src, start, start + n);
+                start += n;
+            }
+        }
+
+        private void put(final CharSequence src, final int start, final int end) {
+            if (src instanceof String) {
+                chars.put((String) src, start, end);
+            } else if (src instanceof CharBuffer && ((CharBuffer) src).hasArray()) {
+                final CharBuffer buf = (CharBuffer) src;
+                chars.put(buf.array(), buf.arrayOffset() + buf.position() + start, end - start);
+            } else {
+                for (int i = start; i < end; i++) {
+                    chars.put(src.charAt(i));
+                }
+            }
+        }
+
+        private void encode(final boolean endOfInput) throws IOException {
+            chars.flip();
+            while (encoder.encode(chars, bytes, endOfInput).isOverflow()) {
+                writeBytes();
+            }
+            writeBytes();
+            //may leave a dangling high surrogate behind, to be completed by the next write
+            chars.compact();
+        }
+
+        private void writeBytes() throws IOException {
+            bytes.flip();
+            writeFully(out, bytes);
+            bytes.clear();
+        }
+
+        void finish() throws IOException {
+            encode(true);
+            while (encoder.flush(bytes).isOverflow()) {
+                writeBytes();
+            }
+            writeBytes();
+        }
+    }
+}
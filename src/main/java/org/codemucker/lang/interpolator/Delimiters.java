@@ -0,0 +1,101 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import static org.codemucker.lang.Check.checkNotNull;
+import static org.codemucker.lang.Check.checkTrue;
+
+import org.codemucker.lang.annotation.Immutable;
+import org.codemucker.lang.annotation.ThreadSafe;
+
+/**
+ * The start and end markers of a variable token, such as <pre>${</pre> and <pre>}</pre>. Either can be multiple chars.
+ *
+ * <p>Tokens follow the same rules whatever the delimiters:
+ * <ul>
+ *  <li>a start char not followed by the rest of the start delimiter is plain content</li>
+ *  <li>the first end delimiter after a start ends the token</li>
+ *  <li>a start char (first char of the start delimiter) inside an open token abandons that token, which is output as is</li>
+ *  <li>an unterminated token is output as is</li>
+ * </ul>
+ * </p>
+ */
+@Immutable
+@ThreadSafe
+public final class Delimiters {
+
+    public static final Delimiters DEFAULT = new Delimiters("${", "}");
+    public static final Delimiters HASH = new Delimiters("#{", "}");
+    public static final Delimiters DOUBLE_BRACES = new Delimiters("{{", "}}");
+    public static final Delimiters PERCENT = new Delimiters("%", "%");
+
+    private final String start;
+    private final String end;
+
+    private Delimiters(final String start, final String end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    public static Delimiters of(final String start, final String end) {
+        checkNotNull("start", start);
+        checkNotNull("end", end);
+        checkTrue("start", start, start.length() > 0, "not empty");
+        checkTrue("end", end, end.length() > 0, "not empty");
+        if (DEFAULT.start.equals(start) && DEFAULT.end.equals(end)) {
+            return DEFAULT;
+        }
+        return new Delimiters(start, end);
+    }
+
+    public String getStart() {
+        return start;
+    }
+
+    public String getEnd() {
+        return end;
+    }
+
+    char startChar() {
+        return start.charAt(0);
+    }
+
+    boolean isDefault() {
+        return this == DEFAULT;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof Delimiters)) {
+            return false;
+        }
+        final Delimiters other = (Delimiters) obj;
+        return start.equals(other.start) && end.equals(other.end);
+    }
+
+    @Override
+    public int hashCode() {
+        return start.hashCode() * 31 + end.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return start + "name" + end;
+    }
+}
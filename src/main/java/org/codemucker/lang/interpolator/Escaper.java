@@ -0,0 +1,32 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import java.io.IOException;
+
+/**
+ * Escapes variable values as they are rendered, writing straight to the output rather than building an escaped copy.
+ * See {@link Escapers} for the standard ones, and {@link Template#withEscaper(Escaper)} to use one.
+ *
+ * <p>Implementations must be threadsafe</p>
+ */
+public interface Escaper {
+
+    /**
+     * Append the escaped value to the output
+     */
+    void escape(CharSequence value, Appendable out) throws IOException;
+}
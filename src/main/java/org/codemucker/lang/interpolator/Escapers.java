@@ -0,0 +1,202 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import java.io.IOException;
+
+/**
+ * The standard {@link Escaper}s. Each scans the value for the first char which needs escaping, so a value which needs
+ * none is appended as is in one go.
+ */
+public final class Escapers {
+
+    /**
+     * Escapes the chars significant in HTML text and attribute values: &amp; &lt; &gt; &quot; and '
+     */
+    public static final Escaper HTML = new TableEscaper(new String[][] {
+            { "&", "&amp;" }, { "<", "&lt;" }, { ">", "&gt;" }, { "\"", "&quot;" }, { "'", "&#39;" } });
+
+    /**
+     * Escapes the XML markup chars, and drops the control chars which aren't allowed in XML
+     */
+    public static final Escaper XML = new TableEscaper(withControlChars(new String[][] {
+            { "&", "&amp;" }, { "<", "&lt;" }, { ">", "&gt;" }, { "\"", "&quot;" }, { "'", "&apos;" } }, "")) {
+        @Override
+        String escapeHigh(final char c) {
+            return c == '\ufffe' || c == '\uffff' ? "" : null;
+        }
+    };
+
+    /**
+     * Escapes a value for use inside a JSON (or javascript) string literal
+     */
+    public static final Escaper JSON = new TableEscaper(withControlChars(new String[][] {
+            { "\"", "\\\"" }, { "\\", "\\\\" }, { "/", "\\/" }, { "\b", "\\b" }, { "\f", "\\f" }, { "\n", "\\n" }, { "\r", "\\r" }, { "\t", "\\t" } }, null)) {
+        @Override
+        String escapeHigh(final char c) {
+            //valid in JSON but not in javascript
+            if (c == '\u2028') {
+                return "\\u2028";
+            }
+            if (c == '\u2029') {
+                return "\\u2029";
+            }
+            return null;
+        }
+    };
+
+    private Escapers(){
+        //static only
+    }
+
+    /**
+     * Escape the given value to a string. A value which needs no escaping (which the escaper appends as is) is returned
+     * without being copied
+     */
+    public static String escape(final Escaper escaper, final CharSequence value) {
+        final EscapedValue out = new EscapedValue(value);
+        try {
+            escaper.escape(value, out);
+        } catch (final IOException e) {
+            //should never be thrown if we're only writing to a string builder
+            throw new RuntimeException("Unexpected IO error whilst writing to string builder", e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Add replacements for the control chars other than tab, newline and carriage return, which aren't already replaced
+     *
+     * @param replacement what to replace them with, or null to use unicode escapes
+     */
+    private static String[][] withControlChars(final String[][] replacements, final String replacement) {
+        final String[][] all = new String[replacements.length + 0x20][];
+        System.arraycopy(replacements, 0, all, 0, replacements.length);
+        int count = replacements.length;
+        for (char c = 0; c < 0x20; c++) {
+            if (c != '\t' && c != '\n' && c != '\r') {
+                all[count++] = new String[] { String.valueOf(c), replacement == null ? String.format("\\u%04x", (int) c) : replacement };
+            }
+        }
+        final String[][] trimmed = new String[count][];
+        System.arraycopy(all, 0, trimmed, 0, count);
+        return trimmed;
+    }
+
+    /**
+     * Collects an escaped value, only copying it into a builder once the escaper appends anything other than the whole
+     * value as is
+     */
+    private static class EscapedValue implements Appendable {
+        private final CharSequence value;
+        /**
+         * The whole value was appended as is, and nothing else
+         */
+        private boolean asIs;
+        private StringBuilder sb;
+
+        EscapedValue(final CharSequence value) {
+            this.value = value;
+        }
+
+        @Override
+        public Appendable append(final CharSequence csq) {
+            if (csq == value && sb == null && !asIs) {
+                asIs = true;
+            } else {
+                builder().append(csq);
+            }
+            return this;
+        }
+
+        @Override
+        public Appendable append(final CharSequence csq, final int start, final int end) {
+            builder().append(csq, start, end);
+            return this;
+        }
+
+        @Override
+        public Appendable append(final char c) {
+            builder().append(c);
+            return this;
+        }
+
+        private StringBuilder builder() {
+            if (sb == null) {
+                sb = new StringBuilder(value.length() + 16);
+                if (asIs) {
+                    sb.append(value);
+                    asIs = false;
+                }
+            }
+            return sb;
+        }
+
+        @Override
+        public String toString() {
+            if (sb != null) {
+                return sb.toString();
+            }
+            return asIs ? value.toString() : "";
+        }
+    }
+
+    /**
+     * Looks up the replacement for ascii chars in a table, and calls out for the rest
+     */
+    static class TableEscaper implements Escaper {
+        private final String[] table = new String[128];
+
+        TableEscaper(final String[][] replacements) {
+            for (final String[] replacement : replacements) {
+                final char c = replacement[0].charAt(0);
+                if (table[c] == null) {
+                    table[c] = replacement[1];
+                }
+            }
+        }
+
+        @Override
+        public void escape(final CharSequence value, final Appendable out) throws IOException {
+            final String[] table = this.table;
+            final int len = value.length();
+            int start = 0;
+            for (int i = 0; i < len; i++) {
+                final char c = value.charAt(i);
+                final String replacement = c < 128 ? table[c] : escapeHigh(c);
+                if (replacement != null) {
+                    if (i > start) {
+                        out.append(value, start, i);
+                    }
+                    out.append(replacement);
+                    start = i + 1;
+                }
+            }
+            if (start == 0) {
+                out.append(value);
+            } else if (start < len) {
+                out.append(value, start, len);
+            }
+        }
+
+        /**
+         * The replacement for a non ascii char, or null if it needs no escaping
+         */
+        String escapeHigh(final char c) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import static org.codemucker.lang.Check.checkNotNull;
+
+import java.util.Map;
+
+import org.codemucker.lang.annotation.NotThreadSafe;
+
+/**
+ * Repeatedly renders a template, keeping the previous output and the value rendered into each slot, so a re-render only
+ * splices in the slots whose values changed. Useful for large templates re-rendered often with few changes, where the
+ * caller can skip writing the output when nothing changed.
+ *
+ * <p>Values are compared by their rendered text, so mutable values are handled correctly</p>
+ */
+@NotThreadSafe
+public class IncrementalRenderer {
+
+    private final Template template;
+    /**
+     * The text rendered into each slot last time, null before the first render
+     */
+    private final String[] slotValues;
+    /**
+     * Where each slot starts in the output
+     */
+    private final int[] slotStarts;
+    private final StringBuilder output;
+    private boolean rendered;
+
+    public IncrementalRenderer(final Template template) {
+        this.template = checkNotNull("template", template);
+        final int numVars = template.getNumVars();
+        this.slotValues = new String[numVars];
+        this.slotStarts = new int[numVars];
+        this.output = new StringBuilder(template.estimateLength());
+    }
+
+    /**
+     * Re-render with the given vars
+     *
+     * @return true if any slot's text changed since the last render (always true on the first). See
+     *         {@link #renderWith(VariableResolver)}, may report a change when the output is identical
+     */
+    public boolean render(final Map<String, ?> vars) {
+        return renderWith(Resolvers.fromMap(vars));
+    }
+
+    /**
+     * Re-render with the given resolver
+     *
+     * @return true if any slot's text changed since the last render (always true on the first). Never false if the
+     *         output changed, though may report a change when the output is identical, e.g. when text moves between
+     *         two adjacent slots
+     */
+    public boolean renderWith(final VariableResolver resolver) {
+        checkNotNull("resolver", resolver);
+        final RenderProbe probe = RenderProbe.start(resolver);
+        if (probe == null) {
+            return render(resolver);
+        }
+        final boolean changed = render(probe);
+        probe.finish(template.getSource(), template.getSource().length(), output.length());
+        return changed;
+    }
+
+    private boolean render(final VariableResolver resolver) {
+        if (!rendered) {
+            renderAll(resolver);
+            rendered = true;
+            return true;
+        }
+        final String[] slotValues = this.slotValues;
+        final int[] slotStarts = this.slotStarts;
+        boolean changed = false;
+        //how far the slots after the last spliced one have moved
+        int shift = 0;
+        for (int i = 0; i < slotValues.length; i++) {
+            final int start = slotStarts[i] + shift;
+            slotStarts[i] = start;
+            final String previous = slotValues[i];
+            final String value = valueFor(resolver, i);
+            if (!value.equals(previous)) {
+                output.replace(start, start + previous.length(), value);
+                slotValues[i] = value;
+                shift += value.length() - previous.length();
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private void renderAll(final VariableResolver resolver) {
+        final StringBuilder output = this.output;
+        output.setLength(0);
+        for (int i = 0; i < slotValues.length; i++) {
+            output.append(template.getLiteral(i));
+            final String value = valueFor(resolver, i);
+            slotStarts[i] = output.length();
+            slotValues[i] = value;
+            output.append(value);
+        }
+        output.append(template.getLiteral(slotValues.length));
+    }
+
+    private String valueFor(final VariableResolver resolver, final int slot) {
+        final Object val = resolver.resolve(template.getVarName(slot));
+        if (val == VariableResolver.ABSENT) {
+            return template.getToken(slot);
+        }
+        return val == null ? "" : template.renderValue(slot, val);
+    }
+
+    /**
+     * The output of the last render. This is a live view which changes on the next render, call toString() to keep it
+     */
+    public CharSequence getOutput() {
+        return output;
+    }
+
+    public Template getTemplate() {
+        return template;
+    }
+
+    @Override
+    public String toString() {
+        return output.toString();
+    }
+}
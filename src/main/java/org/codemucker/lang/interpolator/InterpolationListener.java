@@ -0,0 +1,36 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+/**
+ * Notified of each interpolation while installed via {@link InterpolatorMetrics#setListener(InterpolationListener)}.
+ * Called on the rendering thread, so possibly concurrently, and must be fast.
+ *
+ * <p>Sizes are in chars for the string and template engines and in bytes for the byte engines, or -1 if not known
+ * (when streaming)</p>
+ */
+public interface InterpolationListener {
+
+    /**
+     * @param template the template or input rendered, or null if streamed from a reader or channel
+     * @param sizeIn the size of the input
+     * @param sizeOut the size of the output
+     * @param resolved the number of variables resolved, including to null
+     * @param unresolved the number of tokens output as is as their variable couldn't be resolved
+     * @param nanos how long the render took
+     */
+    void onRender(CharSequence template, long sizeIn, long sizeOut, int resolved, int unresolved, long nanos);
+}
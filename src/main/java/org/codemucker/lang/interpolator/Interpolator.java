@@ -17,13 +17,23 @@ package org.codemucker.lang.interpolator;
 
 import static org.codemucker.lang.Check.checkNotNull;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Reader;
-import java.io.StringReader;
-import java.io.StringWriter;
 import java.io.Writer;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 
 /**
@@ -38,128 +48,510 @@ import java.util.Map;
  */
 public class Interpolator {
 
+    private static final ChannelInterpolator CHANNEL_INTERPOLATOR = new ChannelInterpolator();
+
+    /**
+     * Parse the given input once into a reusable, threadsafe {@link Template}. Use this when the same input is
+     * rendered many times, to avoid re-parsing it on every call
+     */
+    public static Template compile(final CharSequence input) {
+        return Template.parse(input);
+    }
+
+    /**
+     * As per {@link #compile(CharSequence)} but for tokens marked by the given delimiters, such as <pre>{{name}}</pre>
+     */
+    public static Template compile(final CharSequence input, final Delimiters delimiters) {
+        return Template.parse(input, delimiters);
+    }
+
     public static CharSequence interpolate(final CharSequence input, final Map<String, ?> vars) {
+        if( vars == null || vars.size() == 0 ){
+            return input;
+        }
+        return interpolateWith(input, Resolvers.fromMap(vars));
+    }
+
+    /**
+     * Interpolate the given input, looking up only the variables which appear in it from the given resolver
+     */
+    public static CharSequence interpolateWith(final CharSequence input, final VariableResolver resolver) {
+        return interpolateWith(input, resolver, Delimiters.DEFAULT);
+    }
+
+    public static CharSequence interpolate(final CharSequence input, final Map<String, ?> vars, final Delimiters delimiters) {
+        if( vars == null || vars.size() == 0 ){
+            return input;
+        }
+        return interpolateWith(input, Resolvers.fromMap(vars), delimiters);
+    }
+
+    /**
+     * Interpolate the given input, where the tokens are marked by the given delimiters
+     */
+    public static CharSequence interpolateWith(final CharSequence input, final VariableResolver resolver, final Delimiters delimiters) {
+        checkNotNull("resolver", resolver);
+        checkNotNull("delimiters", delimiters);
         if( input == null){
             return null;
-        } else if( vars == null || vars.size() == 0 ){
+        } else if( TemplateScanner.indexOf(input, delimiters.startChar(), 0, input.length()) == -1){
             return input;
         } else {
-            //TODO:we may want a faster, lower resource parser for strings
-            final StringReader sr = new StringReader(input.toString());
-            final StringWriter sw = new StringWriter();
+            final StringBuilder sb = new StringBuilder(estimateLength(input));
             try {
-                interpolate(sr,sw,vars);
+                interpolateWith(input, resolver, delimiters, sb);
             } catch (final IOException e) {
-                //should never be thrown if we're only reading a string
-                throw new RuntimeException("Unexpected IO error whilst reading string",e);
+                //should never be thrown if we're only writing to a string builder
+                throw new RuntimeException("Unexpected IO error whilst writing to string builder",e);
             }
-            return sw.toString();
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Interpolate the given input, appending the result to the given builder. Literal runs are copied in bulk rather
+     * than char by char, and nothing is allocated other than the looked up variable names
+     */
+    public static void interpolate(final CharSequence input, final Map<String, ?> vars, final StringBuilder out) {
+        interpolateWith(input, Resolvers.fromMap(vars), out);
+    }
+
+    public static void interpolateWith(final CharSequence input, final VariableResolver resolver, final StringBuilder out) {
+        try {
+            interpolateWith(input, resolver, (Appendable)out);
+        } catch (final IOException e) {
+            //should never be thrown if we're only writing to a string builder
+            throw new RuntimeException("Unexpected IO error whilst writing to string builder",e);
         }
     }
 
+    public static void interpolate(final CharSequence input, final Map<String, ?> vars, final Appendable out) throws IOException {
+        checkNotNull("input", input);
+        checkNotNull("output", out);
+        if( vars == null || vars.size() == 0 ){
+            out.append(input);
+        } else {
+            interpolateWith(input, Resolvers.fromMap(vars), out);
+        }
+    }
+
+    public static void interpolateWith(final CharSequence input, final VariableResolver resolver, final Appendable out) throws IOException {
+        interpolateWith(input, resolver, Delimiters.DEFAULT, out);
+    }
+
+    public static void interpolateWith(final CharSequence input, final VariableResolver resolver, final Delimiters delimiters, final Appendable out) throws IOException {
+        checkNotNull("input", input);
+        checkNotNull("resolver", resolver);
+        checkNotNull("delimiters", delimiters);
+        checkNotNull("output", out);
+        final RenderProbe probe = RenderProbe.start(resolver);
+        if (probe == null) {
+            TemplateScanner.scan(input, delimiters, new AppendingHandler(out, resolver));
+        } else {
+            final RenderProbe.CountingAppendable counted = new RenderProbe.CountingAppendable(out);
+            TemplateScanner.scan(input, delimiters, new AppendingHandler(counted, probe));
+            probe.finish(input, input.length(), counted.count);
+        }
+    }
+
+    /**
+     * A guess at the interpolated size of the given input, to size output buffers with
+     */
+    static int estimateLength(final CharSequence input) {
+        return estimateLength(input.length());
+    }
+
+    static int estimateLength(final int inputLength) {
+        return inputLength + Math.min(inputLength >> 3, 4096) + 16;
+    }
+
     public static void interpolate(final Reader in, final Writer out, final Map<String, ?> vars) throws IOException {
         checkNotNull("inputReader", in);
         checkNotNull("outputWriter", out);
-        new ReaderParser(in,out,vars).interpolate();
+        //if no variables to interpolate, simply copy the input to the output
+        if( vars == null || vars.size() == 0){
+            copy(in, out);
+        } else {
+            interpolateWith(in, out, Resolvers.fromMap(vars));
+        }
     }
 
+    public static void interpolate(final Reader in, final Writer out, final Map<String, ?> vars, final Delimiters delimiters) throws IOException {
+        checkNotNull("inputReader", in);
+        checkNotNull("outputWriter", out);
+        if( vars == null || vars.size() == 0){
+            copy(in, out);
+        } else {
+            interpolateWith(in, out, Resolvers.fromMap(vars), delimiters);
+        }
+    }
+
+    public static void interpolateWith(final Reader in, final Writer out, final VariableResolver resolver) throws IOException {
+        interpolateWith(in, out, resolver, Delimiters.DEFAULT);
+    }
+
+    /**
+     * Interpolate the reader to the writer, where the tokens are marked by the given delimiters. The writer is flushed
+     * but neither is closed. The default delimiters are parsed char by char, others read the input in blocks with
+     * literal runs written in bulk
+     */
+    public static void interpolateWith(final Reader in, final Writer out, final VariableResolver resolver, final Delimiters delimiters) throws IOException {
+        checkNotNull("inputReader", in);
+        checkNotNull("outputWriter", out);
+        checkNotNull("resolver", resolver);
+        checkNotNull("delimiters", delimiters);
+        final RenderProbe probe = RenderProbe.start(resolver);
+        final VariableResolver counted = probe == null ? resolver : probe;
+        if (delimiters.isDefault()) {
+            new ReaderParser(in,out,counted).interpolate();
+        } else {
+            new DelimitedReaderParser(in,out,counted,delimiters).interpolate();
+        }
+        if (probe != null) {
+            probe.finish(null, -1, -1);
+        }
+    }
+
+    private static void copy(final Reader in, final Writer out) throws IOException {
+        final char[] tmpBuf = new char[1024*8];
+        int numRead = in.read(tmpBuf, 0, tmpBuf.length);
+        while( numRead != -1){
+            out.write(tmpBuf, 0, numRead);
+            numRead = in.read(tmpBuf, 0, tmpBuf.length);
+        }
+        out.flush();
+    }
+
+    /**
+     * Interpolate from one channel to another in bounded memory, using pooled buffers of the default size. See
+     * {@link ChannelInterpolator} to control the buffer size. Neither channel is closed
+     */
+    public static void interpolate(final ReadableByteChannel in, final WritableByteChannel out, final Map<String, ?> vars, final Charset charset) throws IOException {
+        CHANNEL_INTERPOLATOR.interpolate(in, out, vars, charset);
+    }
+
+    public static void interpolateWith(final ReadableByteChannel in, final WritableByteChannel out, final VariableResolver resolver, final Charset charset) throws IOException {
+        CHANNEL_INTERPOLATOR.interpolateWith(in, out, resolver, charset);
+    }
+
+    /**
+     * Interpolate the whole of the given file to the output channel. See {@link #interpolate(FileChannel, WritableByteChannel, Map, Charset)}
+     */
+    public static void interpolate(final File file, final WritableByteChannel out, final Map<String, ?> vars, final Charset charset) throws IOException {
+        interpolateWith(file, out, vars == null || vars.size() == 0 ? null : Resolvers.fromMap(vars), charset);
+    }
+
+    /**
+     * Interpolate the whole of the given file to the output channel. See {@link #interpolateWith(FileChannel, WritableByteChannel, VariableResolver, Charset)}
+     */
+    public static void interpolateWith(final File file, final WritableByteChannel out, final VariableResolver resolver, final Charset charset) throws IOException {
+        checkNotNull("file", file);
+        final FileInputStream in = new FileInputStream(file);
+        try {
+            interpolateWith(in.getChannel(), out, resolver, charset);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Interpolate the whole of the given file to the output channel, by memory mapping the file and scanning the mapped
+     * bytes directly. Literal content is transferred to the output without being decoded or copied through the heap, so
+     * a large file with few variables renders at close to the speed of a plain file copy.
+     *
+     * <p>Only works for ascii compatible charsets (UTF-8, US-ASCII, ISO-8859-*), other charsets fall back to
+     * decoding the file as per {@link #interpolate(ReadableByteChannel, WritableByteChannel, Map, Charset)}. Neither channel is closed</p>
+     */
+    public static void interpolate(final FileChannel in, final WritableByteChannel out, final Map<String, ?> vars, final Charset charset) throws IOException {
+        interpolateWith(in, out, vars == null || vars.size() == 0 ? null : Resolvers.fromMap(vars), charset);
+    }
+
+    /**
+     * As per {@link #interpolate(FileChannel, WritableByteChannel, Map, Charset)}. A null resolver copies the file as is
+     */
+    public static void interpolateWith(final FileChannel in, final WritableByteChannel out, final VariableResolver resolver, final Charset charset) throws IOException {
+        checkNotNull("inputChannel", in);
+        checkNotNull("outputChannel", out);
+        checkNotNull("charset", charset);
+        if (ByteTemplateScanner.isSupported(charset)) {
+            MappedFileInterpolator.interpolate(in, out, resolver, charset, MappedFileInterpolator.DEFAULT_WINDOW_SIZE);
+        } else {
+            in.position(0);
+            CHANNEL_INTERPOLATOR.interpolateWith(in, out, resolver, charset);
+        }
+    }
+
+    /**
+     * Interpolate the given input, also interpolating any variables in the values, with the default limits. See
+     * {@link RecursiveInterpolator}
+     *
+     * @throws IllegalStateException if the variables refer to each other in a cycle, or a limit is exceeded
+     */
+    public static String interpolateRecursive(final CharSequence input, final Map<String, ?> vars) {
+        return RecursiveInterpolator.DEFAULT.interpolate(input, vars);
+    }
+
+    public static String interpolateRecursiveWith(final CharSequence input, final VariableResolver resolver) {
+        return RecursiveInterpolator.DEFAULT.interpolateWith(input, resolver);
+    }
+
+    /**
+     * Interpolate the given input once all its variables have been looked up asynchronously, concurrently if the
+     * resolver supports it. See {@link Template#renderAsync(AsyncVariableResolver)}
+     */
+    public static RenderFuture interpolateAsync(final CharSequence input, final AsyncVariableResolver resolver) {
+        return compile(input).renderAsync(resolver);
+    }
+
+    /**
+     * Interpolate UTF-8 encoded bytes, without decoding them to chars. See {@link #interpolateUtf8With(ByteBuffer, VariableResolver)}
+     */
+    public static byte[] interpolateUtf8(final byte[] input, final Map<String, ?> vars) {
+        if( input == null){
+            return null;
+        }
+        if( vars == null || vars.size() == 0 ){
+            return input;
+        }
+        return Utf8Interpolator.interpolate(input, Resolvers.fromMap(vars));
+    }
+
+    public static byte[] interpolateUtf8With(final byte[] input, final VariableResolver resolver) {
+        if( input == null){
+            return null;
+        }
+        checkNotNull("resolver", resolver);
+        return Utf8Interpolator.interpolate(input, resolver);
+    }
+
+    /**
+     * Interpolate the remaining UTF-8 encoded bytes of the given buffer, without decoding them to chars. As '$', '{' and
+     * '}' can never appear inside a multi-byte UTF-8 sequence, literal bytes are copied through unchanged, and only the
+     * variable names are decoded and the values encoded. The input's position is left unchanged
+     *
+     * @return a new buffer holding the output, ready to be read
+     */
+    public static ByteBuffer interpolateUtf8With(final ByteBuffer input, final VariableResolver resolver) {
+        checkNotNull("input", input);
+        checkNotNull("resolver", resolver);
+        return Utf8Interpolator.interpolate(input, resolver);
+    }
+
+    /**
+     * As per {@link #interpolateUtf8With(ByteBuffer, VariableResolver)} but writing to the given stream via a small fixed
+     * size buffer, so the output is never held in memory. The stream is not flushed or closed
+     */
+    public static void interpolateUtf8With(final ByteBuffer input, final VariableResolver resolver, final OutputStream out) throws IOException {
+        checkNotNull("input", input);
+        checkNotNull("resolver", resolver);
+        checkNotNull("outputStream", out);
+        Utf8Interpolator.interpolate(input, resolver, out);
+    }
+
+    /**
+     * Interpolate a large input in parallel on a shared pool with a thread per core. See {@link #interpolateParallelWith(CharSequence, VariableResolver, Executor)}
+     */
+    public static CharSequence interpolateParallel(final CharSequence input, final Map<String, ?> vars) {
+        return interpolateParallel(input, vars, ParallelTasks.defaultExecutor());
+    }
+
+    /**
+     * Interpolate a large input in parallel using the given executor. See {@link #interpolateParallelWith(CharSequence, VariableResolver, Executor)}
+     */
+    public static CharSequence interpolateParallel(final CharSequence input, final Map<String, ?> vars, final Executor executor) {
+        if( vars == null || vars.size() == 0 ){
+            return input;
+        }
+        return interpolateParallelWith(input, Resolvers.fromMap(vars), executor);
+    }
+
+    /**
+     * Interpolate a large in memory input (such as a string, or a buffer decoded from a mapped file) in parallel. The
+     * input is split into chunks at points which can never be inside a token, the chunks are interpolated in parallel,
+     * and the results joined back up in order. The result is exactly the same as {@link #interpolateWith(CharSequence, VariableResolver)}.
+     *
+     * <p>Inputs too small to be worth splitting are interpolated on the calling thread. The resolver must be threadsafe</p>
+     */
+    public static CharSequence interpolateParallelWith(final CharSequence input, final VariableResolver resolver, final Executor executor) {
+        if( input == null){
+            return null;
+        }
+        return ParallelInterpolator.interpolate(input, resolver, executor, ParallelInterpolator.DEFAULT_MIN_CHUNK_SIZE);
+    }
+
+    /**
+     * Render the template against each of the given variable maps in parallel, on a shared pool with a thread per core.
+     *
+     * @return the rendered output, in the same order as the maps
+     */
+    public static List<String> renderAll(final Template template, final List<? extends Map<String, ?>> varsList) {
+        return renderAll(template, varsList, ParallelTasks.defaultExecutor());
+    }
+
+    /**
+     * Render the template against each of the given variable maps in parallel, using the given executor
+     *
+     * @return the rendered output, in the same order as the maps
+     */
+    public static List<String> renderAll(final Template template, final List<? extends Map<String, ?>> varsList, final Executor executor) {
+        return BatchRenderer.renderAll(template, toResolvers(varsList), executor);
+    }
+
+    /**
+     * Render the template against each of the given variable maps in parallel, using the given executor, passing each
+     * result to the sink as it's rendered. Avoids creating a string per result. Returns once all are rendered
+     */
+    public static void renderAll(final Template template, final List<? extends Map<String, ?>> varsList, final Executor executor, final RenderSink sink) {
+        BatchRenderer.renderAll(template, toResolvers(varsList), executor, sink);
+    }
+
+    public static List<String> renderAllWith(final Template template, final List<? extends VariableResolver> resolvers) {
+        return renderAllWith(template, resolvers, ParallelTasks.defaultExecutor());
+    }
+
+    public static List<String> renderAllWith(final Template template, final List<? extends VariableResolver> resolvers, final Executor executor) {
+        return BatchRenderer.renderAll(template, resolvers, executor);
+    }
+
+    public static void renderAllWith(final Template template, final List<? extends VariableResolver> resolvers, final Executor executor, final RenderSink sink) {
+        BatchRenderer.renderAll(template, resolvers, executor, sink);
+    }
+
+    private static List<VariableResolver> toResolvers(final List<? extends Map<String, ?>> varsList) {
+        checkNotNull("varsList", varsList);
+        return new AbstractList<VariableResolver>() {
+            @Override
+            public VariableResolver get(final int index) {
+                return Resolvers.fromMap(varsList.get(index));
+            }
+
+            @Override
+            public int size() {
+                return varsList.size();
+            }
+        };
+    }
+
+    /**
+     * Writes the scanned input straight to the output, looking up vars as they are found
+     */
+    static class AppendingHandler implements TemplateScanner.Handler {
+        private final Appendable out;
+        private final VariableResolver resolver;
+
+        AppendingHandler(final Appendable out, final VariableResolver resolver) {
+            this.out = out;
+            this.resolver = resolver;
+        }
+
+        @Override
+        public void onLiteral(final CharSequence src, final int start, final int end) throws IOException {
+            out.append(src, start, end);
+        }
+
+        @Override
+        public void onVar(final CharSequence src, final int tokenStart, final int tokenEnd, final String varName) throws IOException {
+            final Object varVal = resolver.resolve(varName);
+            if( varVal == VariableResolver.ABSENT ){
+                //print the declaration as is
+                out.append(src, tokenStart, tokenEnd);
+            } else if( varVal != null ){
+                out.append(varVal.toString());
+            }
+        }
+    }
+
+    /**
+     * The original engine for the default delimiters, reading a char at a time and writing literals a char at a time as
+     * it goes. The reader benchmark measures the other engines against this one
+     */
     private static class ReaderParser {
         final Reader in;
         final Writer out;
-        final Map<String, ?> vars;
+        final VariableResolver resolver;
 
-        public ReaderParser(final Reader in, final Writer out, final Map<String, ?> vars) {
+        public ReaderParser(final Reader in, final Writer out, final VariableResolver resolver) {
             super();
             this.in = in;
             this.out = out;
-            this.vars = vars==null?new HashMap<String, Object>():vars;
+            this.resolver = resolver;
         }
 
         public void interpolate() throws IOException {
-            //if no variables to interpolate, simply copy the input to the output
-            if( vars == null || vars.size() == 0){
-                final char[] tmpBuf = new char[1024*8];
-                int numRead = in.read(tmpBuf, 0, tmpBuf.length);
-                while( numRead != -1){
-                    out.write(tmpBuf, 0, numRead);
-                    numRead = in.read(tmpBuf, 0, tmpBuf.length);
-                }
-            } else {
-                final StringBuilder varNameBuf = new StringBuilder();
-                char c = readNext();
-                mainLoop:while(!isEnd(c)){
-                    if( c == '$'){
-                        //lets see if the next bunch of chars match the terminal
-                        final char nextChar = readNext();
-                        if( !isEnd(nextChar) ){
-                            if( nextChar == '{'){
-                                //start of varName, lets read until the terminal
-                                varNameBuf.setLength(0);
-                                while( true ){
-                                    final char endChar = readNext();
-                                    if (isEnd(endChar)){
-                                        out.write(c);
-                                        out.write(nextChar);
-                                        out.write(varNameBuf.toString());
-                                        break mainLoop;
-                                    } else if( endChar == '$'){
-                                        //not the token expression, lets print stuff up
-                                        //to this point out, and carry on processing
-                                        out.write(c);
-                                        out.write(nextChar);
-                                        out.write(varNameBuf.toString());
-                                        c = endChar;
-                                        continue mainLoop;
-                                    } else if( endChar == '}'){
-                                        //we now have the whole tokenName
-                                        final String varName = varNameBuf.toString().trim();
-                                        if( vars.containsKey(varName)){
-                                            final Object varVal = vars.get(varName);
-                                            //only print out if there is content, else just leav the output empty
-                                            if( varVal != null ){
-                                                out.write(varVal.toString());
-                                            }
-                                        } else {
-                                            //print the declaration as is
-                                            out.write('$');
-                                            out.write('{');
-                                            out.write(varNameBuf.toString());
-                                            out.write('}');
+            final StringBuilder varNameBuf = new StringBuilder();
+            char c = readNext();
+            mainLoop:while(!isEnd(c)){
+                if( c == '$'){
+                    //lets see if the next bunch of chars match the terminal
+                    final char nextChar = readNext();
+                    if( !isEnd(nextChar) ){
+                        if( nextChar == '{'){
+                            //start of varName, lets read until the terminal
+                            varNameBuf.setLength(0);
+                            while( true ){
+                                final char endChar = readNext();
+                                if (isEnd(endChar)){
+                                    out.write(c);
+                                    out.write(nextChar);
+                                    out.write(varNameBuf.toString());
+                                    break mainLoop;
+                                } else if( endChar == '$'){
+                                    //not the token expression, lets print stuff up
+                                    //to this point out, and carry on processing
+                                    out.write(c);
+                                    out.write(nextChar);
+                                    out.write(varNameBuf.toString());
+                                    c = endChar;
+                                    continue mainLoop;
+                                } else if( endChar == '}'){
+                                    //we now have the whole tokenName
+                                    final String varName = varNameBuf.toString().trim();
+                                    final Object varVal = resolver.resolve(varName);
+                                    if( varVal != VariableResolver.ABSENT){
+                                        //only print out if there is content, else just leav the output empty
+                                        if( varVal != null ){
+                                            out.write(varVal.toString());
                                         }
-                                        //carry on with the rest of the text
-                                        c = readNext();
-                                        continue mainLoop;
                                     } else {
-                                        //lets keep collecting the tokens names
-                                        varNameBuf.append(endChar);
+                                        //print the declaration as is
+                                        out.write('$');
+                                        out.write('{');
+                                        out.write(varNameBuf.toString());
+                                        out.write('}');
                                     }
+                                    //carry on with the rest of the text
+                                    c = readNext();
+                                    continue mainLoop;
+                                } else {
+                                    //lets keep collecting the tokens names
+                                    varNameBuf.append(endChar);
                                 }
-                            } else if( nextChar == '$'){
-                                //maybe this is the start of the token?
-                                //write out the content before this token, and carry on
-                                out.write(c);
-                                c = nextChar;//want the 'c=$' test to be run above
-                                continue mainLoop;
-                            } else {
-                                //normal content, not start of token. Print out as is
-                                out.write(c);
-                                out.write(nextChar);
-                                //and go on to next char
-                                c = readNext();
-                                continue mainLoop;
                             }
+                        } else if( nextChar == '$'){
+                            //maybe this is the start of the token?
+                            //write out the content before this token, and carry on
+                            out.write(c);
+                            c = nextChar;//want the 'c=$' test to be run above
+                            continue mainLoop;
                         } else {
-                            //end of content, just output what we have
+                            //normal content, not start of token. Print out as is
                             out.write(c);
-                            break mainLoop;
+                            out.write(nextChar);
+                            //and go on to next char
+                            c = readNext();
+                            continue mainLoop;
                         }
                     } else {
-                        //normal content, just print as is
+                        //end of content, just output what we have
                         out.write(c);
-                        //and go to next char
-                        c = readNext();
-                        continue mainLoop;
+                        break mainLoop;
                     }
+                } else {
+                    //normal content, just print as is
+                    out.write(c);
+                    //and go to next char
+                    c = readNext();
+                    continue mainLoop;
                 }
             }
             out.flush();
@@ -173,5 +565,68 @@ public class Interpolator {
             return c < 0 || c >= 65535;
         }
     }
-}
 
+    /**
+     * Reads the input in blocks, scanning each with the general delimiter scan, and carrying any incomplete token over
+     * to the next block. The buffer grows to fit a token longer than it
+     */
+    private static class DelimitedReaderParser implements TemplateScanner.Handler {
+        private static final int BUFFER_SIZE = 8 * 1024;
+
+        final Reader in;
+        final Writer out;
+        final VariableResolver resolver;
+        final Delimiters delimiters;
+        char[] buf = new char[BUFFER_SIZE];
+
+        public DelimitedReaderParser(final Reader in, final Writer out, final VariableResolver resolver, final Delimiters delimiters) {
+            super();
+            this.in = in;
+            this.out = out;
+            this.resolver = resolver;
+            this.delimiters = delimiters;
+        }
+
+        public void interpolate() throws IOException {
+            CharBuffer chars = CharBuffer.wrap(buf);
+            int len = 0;
+            boolean endOfInput = false;
+            while (!endOfInput) {
+                if (len == buf.length) {
+                    //a token longer than the buffer, grow to fit
+                    buf = Arrays.copyOf(buf, buf.length * 2);
+                    chars = CharBuffer.wrap(buf);
+                }
+                final int numRead = in.read(buf, len, buf.length - len);
+                if (numRead == -1) {
+                    endOfInput = true;
+                } else {
+                    len += numRead;
+                }
+                chars.limit(len);
+                final int consumed = TemplateScanner.scan(chars, 0, len, endOfInput, delimiters, this);
+                len -= consumed;
+                System.arraycopy(buf, consumed, buf, 0, len);
+            }
+            out.flush();
+        }
+
+        @Override
+        public void onLiteral(final CharSequence src, final int start, final int end) throws IOException {
+            //src always wraps the whole buffer
+            out.write(buf, start, end - start);
+        }
+
+        @Override
+        public void onVar(final CharSequence src, final int tokenStart, final int tokenEnd, final String varName) throws IOException {
+            final Object varVal = resolver.resolve(varName);
+            if( varVal == VariableResolver.ABSENT){
+                //print the declaration as is
+                onLiteral(src, tokenStart, tokenEnd);
+            } else if( varVal != null ){
+                //only print out if there is content, else just leave the output empty
+                out.write(varVal.toString());
+            }
+        }
+    }
+}
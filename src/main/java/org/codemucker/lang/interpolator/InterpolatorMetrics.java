@@ -0,0 +1,72 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Installs the listener notified of every interpolation. Disabled by default, in which case the only cost to a render
+ * is reading a volatile field.
+ *
+ * <pre>
+ * InterpolatorStats stats = InterpolatorMetrics.enableJmx();
+ * </pre>
+ */
+public final class InterpolatorMetrics {
+
+    public static final String JMX_NAME = "org.codemucker.lang.interpolator:type=InterpolatorStats";
+
+    private static volatile InterpolationListener listener;
+
+    private InterpolatorMetrics(){
+        //static only
+    }
+
+    /**
+     * Set the listener to notify of each interpolation, or null to disable
+     */
+    public static void setListener(final InterpolationListener listener) {
+        InterpolatorMetrics.listener = listener;
+    }
+
+    public static InterpolationListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Start collecting stats into a new {@link InterpolatorStats}, registered with the platform MBean server under
+     * {@link #JMX_NAME} (replacing any already registered)
+     */
+    public static InterpolatorStats enableJmx() {
+        final InterpolatorStats stats = new InterpolatorStats();
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            final ObjectName name = new ObjectName(JMX_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(stats, name);
+        } catch (final JMException e) {
+            throw new RuntimeException("Error registering interpolator stats as " + JMX_NAME, e);
+        }
+        setListener(stats);
+        return stats;
+    }
+}
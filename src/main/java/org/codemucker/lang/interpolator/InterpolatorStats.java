@@ -0,0 +1,178 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.codemucker.lang.annotation.ThreadSafe;
+
+/**
+ * Collects interpolation counts, sizes and a latency histogram, exposed over JMX. See {@link InterpolatorMetrics#enableJmx()}.
+ *
+ * <p>Latencies are bucketed by powers of two microseconds. Unresolved tokens are also counted per template, to find
+ * templates which print their tokens as is. Only so many templates are tracked, after which counts go to
+ * {@link #OTHER_TEMPLATES}</p>
+ */
+@ThreadSafe
+public class InterpolatorStats implements InterpolationListener, InterpolatorStatsMXBean {
+
+    public static final String STREAMED_TEMPLATE = "<streamed>";
+    public static final String OTHER_TEMPLATES = "<other>";
+
+    static final int MAX_TRACKED_TEMPLATES = 1000;
+    static final int MAX_TEMPLATE_KEY_LENGTH = 120;
+    /**
+     * Buckets for under 1us, 2us, 4us ... ~1s, and the rest
+     */
+    private static final int NUM_BUCKETS = 22;
+
+    private final AtomicLong renderCount = new AtomicLong();
+    private final AtomicLong sizeIn = new AtomicLong();
+    private final AtomicLong sizeOut = new AtomicLong();
+    private final AtomicLong resolvedCount = new AtomicLong();
+    private final AtomicLong unresolvedCount = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLongArray latencies = new AtomicLongArray(NUM_BUCKETS);
+    private final ConcurrentMap<String, AtomicLong> unresolvedByTemplate = new ConcurrentHashMap<String, AtomicLong>();
+
+    @Override
+    public void onRender(final CharSequence template, final long in, final long out, final int resolved, final int unresolved, final long nanos) {
+        renderCount.incrementAndGet();
+        if (in > 0) {
+            sizeIn.addAndGet(in);
+        }
+        if (out > 0) {
+            sizeOut.addAndGet(out);
+        }
+        if (resolved > 0) {
+            resolvedCount.addAndGet(resolved);
+        }
+        if (unresolved > 0) {
+            unresolvedCount.addAndGet(unresolved);
+            countFor(template).addAndGet(unresolved);
+        }
+        totalNanos.addAndGet(nanos);
+        latencies.incrementAndGet(bucketFor(nanos));
+    }
+
+    static int bucketFor(final long nanos) {
+        final long micros = nanos / 1000;
+        if (micros <= 0) {
+            return 0;
+        }
+        return Math.min(NUM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    private AtomicLong countFor(final CharSequence template) {
+        String key;
+        if (template == null) {
+            key = STREAMED_TEMPLATE;
+        } else if (template.length() > MAX_TEMPLATE_KEY_LENGTH) {
+            key = template.subSequence(0, MAX_TEMPLATE_KEY_LENGTH).toString() + "...";
+        } else {
+            key = template.toString();
+        }
+        AtomicLong count = unresolvedByTemplate.get(key);
+        if (count == null) {
+            if (unresolvedByTemplate.size() >= MAX_TRACKED_TEMPLATES) {
+                key = OTHER_TEMPLATES;
+            }
+            count = new AtomicLong();
+            final AtomicLong existing = unresolvedByTemplate.putIfAbsent(key, count);
+            if (existing != null) {
+                count = existing;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public long getRenderCount() {
+        return renderCount.get();
+    }
+
+    @Override
+    public long getSizeIn() {
+        return sizeIn.get();
+    }
+
+    @Override
+    public long getSizeOut() {
+        return sizeOut.get();
+    }
+
+    @Override
+    public long getResolvedCount() {
+        return resolvedCount.get();
+    }
+
+    @Override
+    public long getUnresolvedCount() {
+        return unresolvedCount.get();
+    }
+
+    @Override
+    public long getTotalNanos() {
+        return totalNanos.get();
+    }
+
+    @Override
+    public long[] getLatencyHistogram() {
+        final long[] counts = new long[NUM_BUCKETS];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = latencies.get(i);
+        }
+        return counts;
+    }
+
+    @Override
+    public long[] getLatencyBucketBoundsMicros() {
+        final long[] bounds = new long[NUM_BUCKETS];
+        for (int i = 0; i < bounds.length - 1; i++) {
+            bounds[i] = 1L << i;
+        }
+        bounds[NUM_BUCKETS - 1] = Long.MAX_VALUE;
+        return bounds;
+    }
+
+    @Override
+    public Map<String, Long> getUnresolvedByTemplate() {
+        final Map<String, Long> counts = new HashMap<String, Long>();
+        for (final Map.Entry<String, AtomicLong> entry : unresolvedByTemplate.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts;
+    }
+
+    @Override
+    public void reset() {
+        renderCount.set(0);
+        sizeIn.set(0);
+        sizeOut.set(0);
+        resolvedCount.set(0);
+        unresolvedCount.set(0);
+        totalNanos.set(0);
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            latencies.set(i, 0);
+        }
+        unresolvedByTemplate.clear();
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import java.util.Map;
+
+/**
+ * The management view of {@link InterpolatorStats}
+ */
+public interface InterpolatorStatsMXBean {
+
+    long getRenderCount();
+
+    long getSizeIn();
+
+    long getSizeOut();
+
+    long getResolvedCount();
+
+    long getUnresolvedCount();
+
+    long getTotalNanos();
+
+    /**
+     * The number of renders in each latency bucket, see {@link #getLatencyBucketBoundsMicros()}
+     */
+    long[] getLatencyHistogram();
+
+    /**
+     * The exclusive upper bound of each latency bucket in microseconds. The last bucket holds everything slower
+     */
+    long[] getLatencyBucketBoundsMicros();
+
+    /**
+     * The number of unresolved tokens output per template, for templates with any. Keyed by the start of the template
+     */
+    Map<String, Long> getUnresolvedByTemplate();
+
+    void reset();
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Interpolates a file by memory mapping it and scanning the mapped bytes directly for tokens. Literal runs are never
+ * decoded or copied onto the heap, large runs are handed to {@link FileChannel#transferTo(long, long, WritableByteChannel)}
+ * so the OS can copy them straight across, smaller ones are written from the mapped buffer. Only the variable values are encoded.
+ *
+ * <p>Files larger than the mapping window are mapped a window at a time, a token straddling two windows is picked up
+ * at the start of the next. As with the {@link ChannelInterpolator}, a token longer than a whole window is output as is</p>
+ */
+final class MappedFileInterpolator {
+
+    static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Literal runs below this size are cheaper to write directly than to set up a transfer for
+     */
+    private static final int MIN_TRANSFER_SIZE = 8 * 1024;
+
+    private MappedFileInterpolator(){
+        //static only
+    }
+
+    /**
+     * Interpolate the whole of the given file to the output channel. Neither channel is closed. The charset must be
+     * supported by the {@link ByteTemplateScanner}. A null resolver copies the file as is
+     */
+    static void interpolate(final FileChannel in, final WritableByteChannel out, final VariableResolver resolver, final Charset charset, final int windowSize) throws IOException {
+        final long size = in.size();
+        if (resolver == null) {
+            transfer(in, 0, size, out);
+            return;
+        }
+        final RenderProbe probe = RenderProbe.start(resolver);
+        final MappedWriter writer = new MappedWriter(in, out, probe == null ? resolver : probe, charset);
+        long windowStart = 0;
+        while (windowStart < size) {
+            final int len = (int) Math.min(windowSize, size - windowStart);
+            final boolean endOfInput = windowStart + len >= size;
+            final MappedByteBuffer window = in.map(FileChannel.MapMode.READ_ONLY, windowStart, len);
+            writer.windowStart = windowStart;
+            int consumed = ByteTemplateScanner.scan(window, 0, len, endOfInput, charset, writer);
+            if (consumed == 0) {
+                //a token longer than the window, can't be a var we know of so output as is
+                writer.onLiteral(window, 0, len);
+                consumed = len;
+            }
+            windowStart += consumed;
+        }
+        if (probe != null) {
+            probe.finish(null, size, -1);
+        }
+    }
+
+    private static void transfer(final FileChannel in, long pos, final long end, final WritableByteChannel out) throws IOException {
+        while (pos < end) {
+            pos += in.transferTo(pos, end - pos, out);
+        }
+    }
+
+    private static class MappedWriter implements ByteTemplateScanner.Handler {
+        private final FileChannel in;
+        private final WritableByteChannel out;
+        private final VariableResolver resolver;
+        private final CharsetEncoder encoder;
+        private ByteBuffer encoded;
+        long windowStart;
+
+        MappedWriter(final FileChannel in, final WritableByteChannel out, final VariableResolver resolver, final Charset charset) {
+            this.in = in;
+            this.out = out;
+            this.resolver = resolver;
+            this.encoder = charset.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+
+        @Override
+        public void onLiteral(final ByteBuffer src, final int start, final int end) throws IOException {
+            if (end - start >= MIN_TRANSFER_SIZE) {
+                transfer(in, windowStart + start, windowStart + end, out);
+            } else {
+                write(src, start, end);
+            }
+        }
+
+        @Override
+        public void onVar(final ByteBuffer src, final int tokenStart, final int tokenEnd, final String varName) throws IOException {
+            final Object varVal = resolver.resolve(varName);
+            if (varVal == VariableResolver.ABSENT) {
+                write(src, tokenStart, tokenEnd);
+            } else if (varVal != null) {
+                writeEncoded(varVal.toString());
+            }
+        }
+
+        private void write(final ByteBuffer src, final int start, final int end) throws IOException {
+            final ByteBuffer slice = src.duplicate();
+            slice.limit(end).position(start);
+            while (slice.hasRemaining()) {
+                out.write(slice);
+            }
+        }
+
+        private void writeEncoded(final String s) throws IOException {
+            final int maxLen = (int) Math.ceil(s.length() * (double) encoder.maxBytesPerChar());
+            if (encoded == null || encoded.capacity() < maxLen) {
+                encoded = ByteBuffer.allocate(Math.max(maxLen, 256));
+            }
+            encoded.clear();
+            encoder.reset();
+            encoder.encode(CharBuffer.wrap(s), encoded, true);
+            encoder.flush(encoded);
+            encoded.flip();
+            while (encoded.hasRemaining()) {
+                out.write(encoded);
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import static org.codemucker.lang.Check.checkNotNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Interpolates a single large input in parallel, by splitting it into chunks, interpolating each chunk on its own, and
+ * joining the results back up in order.
+ *
+ * <p>A chunk can only be split at a point where the scanner would be outside of a token, so the chunks render exactly
+ * the same as the whole. As a '$' always starts a new token attempt (abandoning any open one as is), the point just
+ * before any '$' is safe. So is any point after a complete token, or after a '$' followed by anything other than a '{'</p>
+ */
+final class ParallelInterpolator {
+
+    static final int DEFAULT_MIN_CHUNK_SIZE = 64 * 1024;
+
+    private ParallelInterpolator(){
+        //static only
+    }
+
+    static CharSequence interpolate(final CharSequence input, final VariableResolver resolver, final Executor executor, final int minChunkSize) {
+        checkNotNull("resolver", resolver);
+        checkNotNull("executor", executor);
+        final int len = input.length();
+        final int targetChunkSize = Math.max(minChunkSize, len / (ParallelTasks.PARALLELISM * 2) + 1);
+        if (len <= targetChunkSize) {
+            return Interpolator.interpolateWith(input, resolver);
+        }
+
+        final List<Integer> bounds = splitPoints(input, targetChunkSize);
+        final StringBuilder[] results = new StringBuilder[bounds.size() - 1];
+        final Runnable[] tasks = new Runnable[results.length];
+        final RenderProbe probe = RenderProbe.start(resolver);
+        final RenderProbe[] chunkProbes = probe == null ? null : new RenderProbe[tasks.length];
+        for (int i = 0; i < tasks.length; i++) {
+            final int index = i;
+            final int start = bounds.get(i);
+            final int end = bounds.get(i + 1);
+            final VariableResolver chunkResolver;
+            if (probe == null) {
+                chunkResolver = resolver;
+            } else {
+                chunkProbes[i] = probe.fork();
+                chunkResolver = chunkProbes[i];
+            }
+            tasks[i] = new Runnable() {
+                @Override
+                public void run() {
+                    final StringBuilder sb = new StringBuilder(Interpolator.estimateLength(end - start));
+                    try {
+                        TemplateScanner.scan(input, start, end, true, new Interpolator.AppendingHandler(sb, chunkResolver));
+                    } catch (final IOException e) {
+                        //should never be thrown if we're only writing to a string builder
+                        throw new RuntimeException("Unexpected IO error whilst writing to string builder", e);
+                    }
+                    results[index] = sb;
+                }
+            };
+        }
+        ParallelTasks.runAll(executor, tasks, "interpolating in parallel");
+
+        int total = 0;
+        for (final StringBuilder result : results) {
+            total += result.length();
+        }
+        final StringBuilder sb = new StringBuilder(total);
+        for (final StringBuilder result : results) {
+            sb.append(result);
+        }
+        if (probe != null) {
+            for (final RenderProbe chunkProbe : chunkProbes) {
+                probe.join(chunkProbe);
+            }
+            probe.finish(input, len, total);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The chunk boundaries, starting with 0 and ending with the input length
+     */
+    static List<Integer> splitPoints(final CharSequence input, final int targetChunkSize) {
+        final int len = input.length();
+        final List<Integer> bounds = new ArrayList<Integer>();
+        bounds.add(0);
+        int chunkStart = 0;
+        while (len - chunkStart > targetChunkSize) {
+            final int split = safeSplitPoint(input, chunkStart, chunkStart + targetChunkSize, len);
+            if (split >= len) {
+                break;
+            }
+            bounds.add(split);
+            chunkStart = split;
+        }
+        bounds.add(len);
+        return bounds;
+    }
+
+    /**
+     * Find the first safe split point at or after the target
+     */
+    private static int safeSplitPoint(final CharSequence input, final int chunkStart, final int target, final int len) {
+        //the chunk start is always safe, so only need to look back that far to know the state at the target
+        final int lastDollar = lastIndexOf(input, '$', chunkStart, target);
+        if (lastDollar == -1) {
+            return target;
+        }
+        final int afterDollar = lastDollar + 1;
+        if (afterDollar < target) {
+            if (input.charAt(afterDollar) != '{') {
+                return target;
+            }
+            if (TemplateScanner.indexOf(input, '}', afterDollar, target) != -1) {
+                return target;
+            }
+        }
+        //in the middle of a possible token, the next '$' is safe
+        final int nextDollar = TemplateScanner.indexOf(input, '$', target, len);
+        return nextDollar == -1 ? len : nextDollar;
+    }
+
+    private static int lastIndexOf(final CharSequence src, final char c, final int from, final int to) {
+        for (int i = to - 1; i >= from; i--) {
+            if (src.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
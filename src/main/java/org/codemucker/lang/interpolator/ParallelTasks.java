@@ -0,0 +1,108 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs a bunch of tasks on an executor and waits for them all to complete, for the parallel render modes
+ */
+final class ParallelTasks {
+
+    static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    private ParallelTasks(){
+        //static only
+    }
+
+    /**
+     * Lazily created, so there are no threads unless a parallel mode is used without an executor
+     */
+    private static class DefaultExecutorHolder {
+        static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(PARALLELISM, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, "interpolator-parallel-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * A shared pool with a thread per core
+     */
+    static Executor defaultExecutor() {
+        return DefaultExecutorHolder.EXECUTOR;
+    }
+
+    /**
+     * Run all the tasks on the executor, blocking until they have all completed. Once a task fails, any tasks not yet
+     * started are skipped.
+     *
+     * @throws RuntimeException if any task failed, wrapping the first failure
+     */
+    static void runAll(final Executor executor, final Runnable[] tasks, final String description) {
+        final CountDownLatch done = new CountDownLatch(tasks.length);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        for (int i = 0; i < tasks.length; i++) {
+            final Runnable task = tasks[i];
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            //no point carrying on once something has failed
+                            if (failure.get() == null) {
+                                task.run();
+                            }
+                        } catch (final Throwable t) {
+                            failure.compareAndSet(null, t);
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                });
+            } catch (final RuntimeException e) {
+                //e.g. rejected, so the remaining tasks will never run
+                failure.compareAndSet(null, e);
+                for (int j = i; j < tasks.length; j++) {
+                    done.countDown();
+                }
+                break;
+            }
+        }
+        try {
+            done.await();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted whilst waiting for " + description + " to complete", e);
+        }
+        final Throwable t = failure.get();
+        if (t != null) {
+            throw new RuntimeException("Error whilst " + description, t);
+        }
+    }
+}
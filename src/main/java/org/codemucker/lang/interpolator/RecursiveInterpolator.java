@@ -0,0 +1,231 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import static org.codemucker.lang.Check.checkNotNull;
+import static org.codemucker.lang.Check.checkTrue;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.codemucker.lang.IBuilder;
+import org.codemucker.lang.annotation.Immutable;
+import org.codemucker.lang.annotation.NotThreadSafe;
+import org.codemucker.lang.annotation.ThreadSafe;
+
+/**
+ * Interpolates values which themselves contain variables, such as layered config where
+ * <pre>url=${host}:${port}</pre> and <pre>host=${env}.example.com</pre>.
+ *
+ * <p>Each variable's value is interpolated the first time it's used, and the expanded value remembered for the rest of
+ * the render, so each is only expanded once no matter how often it's referred to. A variable which refers back to
+ * itself, directly or not, fails the render with the chain of references. So does nesting deeper than the max depth,
+ * or an expanded value or output longer than the max length, which guards against exponential expansion. The length is
+ * checked as the value is built, so a runaway expansion fails before it gets any longer than the max</p>
+ *
+ * <p>Usage:
+ * <pre>
+ * RecursiveInterpolator interpolator = RecursiveInterpolator.builder().maxDepth(8).build();
+ * String s = interpolator.interpolate("${url}", config);
+ * </pre>
+ * </p>
+ */
+@Immutable
+@ThreadSafe
+public class RecursiveInterpolator {
+
+    public static final int DEFAULT_MAX_DEPTH = 16;
+    public static final int DEFAULT_MAX_LENGTH = 1024 * 1024;
+
+    static final RecursiveInterpolator DEFAULT = builder().build();
+
+    private final int maxDepth;
+    private final int maxLength;
+    private final Delimiters delimiters;
+
+    private RecursiveInterpolator(final int maxDepth, final int maxLength, final Delimiters delimiters) {
+        this.maxDepth = maxDepth;
+        this.maxLength = maxLength;
+        this.delimiters = delimiters;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public String interpolate(final CharSequence input, final Map<String, ?> vars) {
+        return interpolateWith(input, Resolvers.fromMap(vars));
+    }
+
+    /**
+     * @throws IllegalStateException if the variables refer to each other in a cycle, or a limit is exceeded
+     */
+    public String interpolateWith(final CharSequence input, final VariableResolver resolver) {
+        checkNotNull("input", input);
+        checkNotNull("resolver", resolver);
+        final RenderProbe probe = RenderProbe.start(resolver);
+        if (probe == null) {
+            return expand("output", input, new Expander(resolver));
+        }
+        //reported as one render, however many values were expanded
+        final String output = expand("output", input, new Expander(probe));
+        probe.finish(input, input.length(), output.length());
+        return output;
+    }
+
+    /**
+     * Scans directly rather than via {@link Interpolator}, so nested expansions aren't reported as renders of their own
+     */
+    private String expand(final String what, final CharSequence input, final VariableResolver resolver) {
+        final BoundedAppendable out = new BoundedAppendable(what, maxLength);
+        try {
+            TemplateScanner.scan(input, delimiters, new Interpolator.AppendingHandler(out, resolver));
+        } catch (final IOException e) {
+            throw new RuntimeException("Unexpected IO error whilst expanding " + what, e);
+        }
+        return out.sb.toString();
+    }
+
+    /**
+     * Fails as soon as the output would go over the max length, rather than after it's all been built
+     */
+    @NotThreadSafe
+    private static class BoundedAppendable implements Appendable {
+        private final String what;
+        private final int maxLength;
+        final StringBuilder sb = new StringBuilder();
+
+        BoundedAppendable(final String what, final int maxLength) {
+            this.what = what;
+            this.maxLength = maxLength;
+        }
+
+        @Override
+        public Appendable append(final CharSequence csq) {
+            final CharSequence s = csq == null ? "null" : csq;
+            checkLength(s.length());
+            sb.append(s);
+            return this;
+        }
+
+        @Override
+        public Appendable append(final CharSequence csq, final int start, final int end) {
+            checkLength(end - start);
+            sb.append(csq, start, end);
+            return this;
+        }
+
+        @Override
+        public Appendable append(final char c) {
+            checkLength(1);
+            sb.append(c);
+            return this;
+        }
+
+        private void checkLength(final int extra) {
+            if (sb.length() + (long) extra > maxLength) {
+                throw new IllegalStateException("Expanded " + what + " is longer than the max length of " + maxLength + " chars");
+            }
+        }
+    }
+
+    /**
+     * Expands and remembers the values for a single render
+     */
+    @NotThreadSafe
+    private class Expander implements VariableResolver {
+        private final VariableResolver resolver;
+        private final Map<String, Object> expanded = new HashMap<String, Object>();
+        /**
+         * The variables currently being expanded, outermost first
+         */
+        private final Set<String> expanding = new LinkedHashSet<String>();
+
+        Expander(final VariableResolver resolver) {
+            this.resolver = resolver;
+        }
+
+        @Override
+        public Object resolve(final String name) {
+            Object value = expanded.get(name);
+            if (value != null || expanded.containsKey(name)) {
+                return value;
+            }
+            if (expanding.contains(name)) {
+                throw new IllegalStateException("Cycle in variable references: " + chainTo(name));
+            }
+            if (expanding.size() >= maxDepth) {
+                throw new IllegalStateException("Variable references nested deeper than the max depth of " + maxDepth + ": " + chainTo(name));
+            }
+            value = resolver.resolve(name);
+            if (value != ABSENT && value != null) {
+                final String s = value.toString();
+                if (s.indexOf(delimiters.startChar()) != -1) {
+                    expanding.add(name);
+                    value = expand("value of '" + name + "'", s, this);
+                    expanding.remove(name);
+                }
+            }
+            expanded.put(name, value);
+            return value;
+        }
+
+        private String chainTo(final String name) {
+            final StringBuilder sb = new StringBuilder();
+            for (final String outer : expanding) {
+                sb.append(outer).append(" -> ");
+            }
+            return sb.append(name).toString();
+        }
+    }
+
+    public static class Builder implements IBuilder<RecursiveInterpolator> {
+        private int maxDepth = DEFAULT_MAX_DEPTH;
+        private int maxLength = DEFAULT_MAX_LENGTH;
+        private Delimiters delimiters = Delimiters.DEFAULT;
+
+        /**
+         * How deeply variables can refer to other variables. Defaults to {@value RecursiveInterpolator#DEFAULT_MAX_DEPTH}
+         */
+        public Builder maxDepth(final int maxDepth) {
+            checkTrue("maxDepth", maxDepth, maxDepth > 0, "greater than zero");
+            this.maxDepth = maxDepth;
+            return this;
+        }
+
+        /**
+         * The max length of any expanded value, and of the output. Defaults to 1M chars
+         */
+        public Builder maxLength(final int maxLength) {
+            checkTrue("maxLength", maxLength, maxLength > 0, "greater than zero");
+            this.maxLength = maxLength;
+            return this;
+        }
+
+        public Builder delimiters(final Delimiters delimiters) {
+            this.delimiters = checkNotNull("delimiters", delimiters);
+            return this;
+        }
+
+        @Override
+        public RecursiveInterpolator build() {
+            return new RecursiveInterpolator(maxDepth, maxLength, delimiters);
+        }
+    }
+}
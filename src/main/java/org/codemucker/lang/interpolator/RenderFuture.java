@@ -0,0 +1,161 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import static org.codemucker.lang.Check.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.codemucker.lang.annotation.ThreadSafe;
+
+/**
+ * The pending output of an asynchronous render. Listeners can be added to be run once it completes, rather than blocking
+ * on {@link #get()}
+ */
+@ThreadSafe
+public class RenderFuture implements Future<String> {
+
+    private final Object lock = new Object();
+    private final CountDownLatch done = new CountDownLatch(1);
+    private List<Runnable> listeners = new ArrayList<Runnable>();
+    private volatile boolean complete;
+    private volatile boolean cancelled;
+    private volatile String output;
+    private volatile Throwable error;
+
+    RenderFuture() {
+    }
+
+    static RenderFuture completed(final String output) {
+        final RenderFuture future = new RenderFuture();
+        future.complete(output);
+        return future;
+    }
+
+    /**
+     * @return true if this completed it, false if it was already complete
+     */
+    boolean complete(final String output) {
+        return finish(output, null, false);
+    }
+
+    boolean fail(final Throwable error) {
+        return finish(null, error, false);
+    }
+
+    private boolean finish(final String output, final Throwable error, final boolean cancel) {
+        final List<Runnable> toRun;
+        synchronized (lock) {
+            if (complete) {
+                return false;
+            }
+            this.output = output;
+            this.error = error;
+            this.cancelled = cancel;
+            this.complete = true;
+            toRun = listeners;
+            listeners = null;
+        }
+        done.countDown();
+        for (final Runnable listener : toRun) {
+            try {
+                listener.run();
+            } catch (final Throwable t) {
+                //e.g. a rejecting executor, don't stop the other listeners being run
+                final Thread thread = Thread.currentThread();
+                final Thread.UncaughtExceptionHandler handler = thread.getUncaughtExceptionHandler();
+                if (handler != null) {
+                    handler.uncaughtException(thread, t);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Run the given listener on the given executor once this completes, or straight away if already complete. Listeners
+     * call {@link #get()} for the result, which won't block. If the executor rejects a listener once this completes, or
+     * the listener throws when run directly, the error is passed to the completing thread's uncaught exception handler,
+     * and the other listeners are still run
+     */
+    public void addListener(final Runnable listener, final Executor executor) {
+        checkNotNull("listener", listener);
+        checkNotNull("executor", executor);
+        final Runnable run = new Runnable() {
+            @Override
+            public void run() {
+                executor.execute(listener);
+            }
+        };
+        synchronized (lock) {
+            if (!complete) {
+                listeners.add(run);
+                return;
+            }
+        }
+        run.run();
+    }
+
+    /**
+     * Stops waiting for the variables. Outstanding lookups are not interrupted, but their results are ignored
+     */
+    @Override
+    public boolean cancel(final boolean mayInterruptIfRunning) {
+        return finish(null, null, true);
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public boolean isDone() {
+        return complete;
+    }
+
+    @Override
+    public String get() throws InterruptedException, ExecutionException {
+        done.await();
+        return result();
+    }
+
+    @Override
+    public String get(final long timeout, final TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException("Timed out waiting for render after " + timeout + " " + unit);
+        }
+        return result();
+    }
+
+    private String result() throws ExecutionException {
+        if (cancelled) {
+            throw new CancellationException("Render was cancelled");
+        }
+        if (error != null) {
+            throw new ExecutionException("Error resolving variables", error);
+        }
+        return output;
+    }
+}
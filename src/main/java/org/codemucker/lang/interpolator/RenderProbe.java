@@ -0,0 +1,109 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import java.io.IOException;
+
+/**
+ * Measures a single render for the installed {@link InterpolationListener}, by counting the lookups made through it.
+ * Only created when a listener is installed, so renders cost nothing extra otherwise.
+ */
+final class RenderProbe implements VariableResolver {
+
+    private final InterpolationListener listener;
+    private final VariableResolver resolver;
+    private final long startNanos;
+    private int resolved;
+    private int unresolved;
+
+    private RenderProbe(final InterpolationListener listener, final VariableResolver resolver) {
+        this.listener = listener;
+        this.resolver = resolver;
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * @return the probe to resolve through, or null if metrics are disabled
+     */
+    static RenderProbe start(final VariableResolver resolver) {
+        final InterpolationListener listener = InterpolatorMetrics.getListener();
+        return listener == null ? null : new RenderProbe(listener, resolver);
+    }
+
+    @Override
+    public Object resolve(final String name) {
+        final Object val = resolver.resolve(name);
+        if (val == ABSENT) {
+            unresolved++;
+        } else {
+            resolved++;
+        }
+        return val;
+    }
+
+    /**
+     * A probe for one part of a render split across threads, so each thread counts on its own. Never reported itself,
+     * its counts are added back via {@link #join(RenderProbe)}
+     */
+    RenderProbe fork() {
+        return new RenderProbe(listener, resolver);
+    }
+
+    /**
+     * Add the counts of a forked probe, once its part of the render has completed
+     */
+    void join(final RenderProbe part) {
+        resolved += part.resolved;
+        unresolved += part.unresolved;
+    }
+
+    void finish(final CharSequence template, final long sizeIn, final long sizeOut) {
+        listener.onRender(template, sizeIn, sizeOut, resolved, unresolved, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Counts the chars appended, to measure the output size
+     */
+    static class CountingAppendable implements Appendable {
+        private final Appendable out;
+        long count;
+
+        CountingAppendable(final Appendable out) {
+            this.out = out;
+        }
+
+        @Override
+        public Appendable append(final CharSequence csq) throws IOException {
+            out.append(csq);
+            count += csq == null ? 4 : csq.length();
+            return this;
+        }
+
+        @Override
+        public Appendable append(final CharSequence csq, final int start, final int end) throws IOException {
+            out.append(csq, start, end);
+            count += end - start;
+            return this;
+        }
+
+        @Override
+        public Appendable append(final char c) throws IOException {
+            out.append(c);
+            count++;
+            return this;
+        }
+    }
+}
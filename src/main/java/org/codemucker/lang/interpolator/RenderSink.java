@@ -0,0 +1,29 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+/**
+ * Receives the results of a batch render. Called from the rendering threads, so possibly concurrently and in any order.
+ */
+public interface RenderSink {
+
+    /**
+     * @param index the position of the variable source in the batch
+     * @param output the rendered output. The buffer is reused for the next render, so is only valid for the duration of
+     *            this call. Call toString() on it to keep it
+     */
+    void onRendered(int index, CharSequence output);
+}
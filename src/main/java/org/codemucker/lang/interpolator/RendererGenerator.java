@@ -0,0 +1,359 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates a {@link SpecializedRenderer} class for a template, with each literal as a string constant and a straight
+ * line sequence of appends of the literals, and of calls back to the template to append each slot's value (so values
+ * are escaped straight into the output). As there are no branches the JIT can compile the whole render as one unit.
+ *
+ * <p>HotSpot won't JIT compile a method with more bytecode than {@link #MAX_METHOD_CODE_LENGTH}, leaving it interpreted
+ * forever, which would be slower than the generic render. So the appends are split into chunk methods small enough to
+ * be inlined into the render method, which just calls each chunk in turn. If even that would be too long, no renderer
+ * is generated</p>
+ *
+ * <p>The class file is version 50 (Java 6) so it loads on any supported JVM, and is defined in its own class loader so
+ * it can be unloaded along with the template. If the class can't be generated or defined (e.g. a literal too long for
+ * a constant, or a security manager refusing class loaders) null is returned, and the template carries on with the
+ * generic render</p>
+ */
+final class RendererGenerator {
+
+    /**
+     * HotSpot's HugeMethodLimit. Longer methods are never compiled (unless DontCompileHugeMethods is turned off)
+     */
+    static final int MAX_METHOD_CODE_LENGTH = 8000;
+    /**
+     * Kept under HotSpot's default FreqInlineSize of 325 bytes, so hot chunks are inlined into the render method
+     */
+    static final int MAX_CHUNK_CODE_LENGTH = 300;
+    /**
+     * Slot indexes are pushed with sipush
+     */
+    static final int MAX_SLOTS = Short.MAX_VALUE;
+    /**
+     * Calling a chunk: aload_0, aload_1, aload_2, aload_3, invokespecial
+     */
+    private static final int CHUNK_CALL_LENGTH = 7;
+    private static final String RENDER_DESC = "(Lorg/codemucker/lang/interpolator/SpecializedRenderer$Slots;Lorg/codemucker/lang/interpolator/VariableResolver;Ljava/lang/StringBuilder;)V";
+    private static final String APPEND_SLOT_DESC = "(Lorg/codemucker/lang/interpolator/VariableResolver;ILjava/lang/StringBuilder;)V";
+
+    private static final String PACKAGE = "org/codemucker/lang/interpolator/generated/";
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+
+    private static final int CLASS_VERSION = 50;
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_PRIVATE = 0x0002;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int ALOAD_2 = 0x2c;
+    private static final int ALOAD_3 = 0x2d;
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int POP = 0x57;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKEINTERFACE = 0xb9;
+
+    private RendererGenerator(){
+        //static only
+    }
+
+    /**
+     * @param literals the literal before each slot, plus the one after the last
+     * @return the renderer, or null if one couldn't be generated
+     */
+    static SpecializedRenderer generate(final String[] literals) {
+        if (literals.length - 1 > MAX_SLOTS) {
+            return null;
+        }
+        final String className = PACKAGE + "Renderer" + COUNTER.incrementAndGet();
+        try {
+            final byte[] bytes = generateClass(className, literals);
+            final Class<?> type = new RendererClassLoader(RendererGenerator.class.getClassLoader()).define(className.replace('/', '.'), bytes);
+            return (SpecializedRenderer) type.getConstructor().newInstance();
+        } catch (final IOException e) {
+            //a literal too long for a constant, or too many slots to compile
+            return null;
+        } catch (final NoSuchMethodException e) {
+            return null;
+        } catch (final InstantiationException e) {
+            return null;
+        } catch (final IllegalAccessException e) {
+            return null;
+        } catch (final InvocationTargetException e) {
+            return null;
+        } catch (final LinkageError e) {
+            return null;
+        } catch (final SecurityException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @throws IOException if the class can't be generated, e.g. a literal is too long for a constant, or the render method
+     *             would be too long to be compiled
+     */
+    static byte[] generateClass(final String className, final String[] literals) throws IOException {
+        final ConstantPool pool = new ConstantPool();
+        final int thisClass = pool.classRef(className);
+        final int objectClass = pool.classRef("java/lang/Object");
+        final int rendererClass = pool.classRef(SpecializedRenderer.class.getName().replace('.', '/'));
+        final int objectInit = pool.methodRef(objectClass, "<init>", "()V");
+        final int append = pool.methodRef(pool.classRef("java/lang/StringBuilder"), "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;");
+        final int appendSlot = pool.interfaceMethodRef(pool.classRef(SpecializedRenderer.Slots.class.getName().replace('.', '/')), "append", APPEND_SLOT_DESC);
+        final int initName = pool.utf8("<init>");
+        final int initDesc = pool.utf8("()V");
+        final int renderName = pool.utf8("render");
+        final int renderDesc = pool.utf8(RENDER_DESC);
+        final int codeName = pool.utf8("Code");
+
+        //out.append(literal0); slots.append(resolver, 0, out); out.append(literal1)..., split into chunks
+        final List<byte[]> chunks = new ArrayList<byte[]>();
+        final ByteArrayOutputStream chunkBytes = new ByteArrayOutputStream();
+        final ByteArrayOutputStream segmentBytes = new ByteArrayOutputStream();
+        final DataOutputStream segment = new DataOutputStream(segmentBytes);
+        final int numSlots = literals.length - 1;
+        for (int i = 0; i <= numSlots; i++) {
+            segmentBytes.reset();
+            if (literals[i].length() > 0) {
+                segment.writeByte(ALOAD_3);
+                segment.writeByte(LDC_W);
+                segment.writeShort(pool.string(literals[i]));
+                segment.writeByte(INVOKEVIRTUAL);
+                segment.writeShort(append);
+                segment.writeByte(POP);
+            }
+            if (i < numSlots) {
+                segment.writeByte(ALOAD_1);
+                segment.writeByte(ALOAD_2);
+                pushInt(segment, i);
+                segment.writeByte(ALOAD_3);
+                segment.writeByte(INVOKEINTERFACE);
+                segment.writeShort(appendSlot);
+                //the slots, resolver, slot and out
+                segment.writeByte(4);
+                segment.writeByte(0);
+            }
+            segment.flush();
+            //plus the trailing return
+            if (chunkBytes.size() > 0 && chunkBytes.size() + segmentBytes.size() + 1 > MAX_CHUNK_CODE_LENGTH) {
+                chunks.add(chunkCode(chunkBytes));
+                chunkBytes.reset();
+            }
+            segmentBytes.writeTo(chunkBytes);
+        }
+        chunks.add(chunkCode(chunkBytes));
+
+        final byte[] renderCode;
+        final int[] chunkRefs;
+        final int[] chunkNames;
+        if (chunks.size() == 1) {
+            renderCode = chunks.get(0);
+            chunkRefs = new int[0];
+            chunkNames = new int[0];
+        } else {
+            //render calls each chunk in turn
+            if (chunks.size() * CHUNK_CALL_LENGTH + 1 > MAX_METHOD_CODE_LENGTH) {
+                throw new IOException("Too many slots (" + numSlots + ") for a compilable render method");
+            }
+            chunkRefs = new int[chunks.size()];
+            chunkNames = new int[chunks.size()];
+            final ByteArrayOutputStream callBytes = new ByteArrayOutputStream();
+            final DataOutputStream calls = new DataOutputStream(callBytes);
+            for (int i = 0; i < chunkRefs.length; i++) {
+                chunkRefs[i] = pool.methodRef(thisClass, "render" + i, RENDER_DESC);
+                chunkNames[i] = pool.utf8("render" + i);
+                calls.writeByte(ALOAD_0);
+                calls.writeByte(ALOAD_1);
+                calls.writeByte(ALOAD_2);
+                calls.writeByte(ALOAD_3);
+                calls.writeByte(INVOKESPECIAL);
+                calls.writeShort(chunkRefs[i]);
+            }
+            calls.writeByte(RETURN);
+            calls.flush();
+            renderCode = callBytes.toByteArray();
+        }
+
+        final ByteArrayOutputStream classBytes = new ByteArrayOutputStream(256 + numSlots * 16);
+        final DataOutputStream out = new DataOutputStream(classBytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(CLASS_VERSION);
+        pool.writeTo(out);
+        out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+        out.writeShort(thisClass);
+        out.writeShort(objectClass);
+        out.writeShort(1);
+        out.writeShort(rendererClass);
+        //no fields
+        out.writeShort(0);
+        out.writeShort(2 + chunkRefs.length);
+
+        //public <init>() { super(); }
+        writeMethod(out, ACC_PUBLIC, initName, initDesc, codeName, 1, 1, new byte[] { ALOAD_0, (byte) INVOKESPECIAL, (byte) (objectInit >> 8), (byte) objectInit, (byte) RETURN });
+        //public void render(Slots slots, VariableResolver resolver, StringBuilder out)
+        writeMethod(out, ACC_PUBLIC, renderName, renderDesc, codeName, 4, 4, renderCode);
+        //private void renderN(Slots slots, VariableResolver resolver, StringBuilder out)
+        for (int i = 0; i < chunkRefs.length; i++) {
+            writeMethod(out, ACC_PRIVATE | ACC_FINAL, chunkNames[i], renderDesc, codeName, 4, 4, chunks.get(i));
+        }
+
+        //no class attributes
+        out.writeShort(0);
+        out.flush();
+        return classBytes.toByteArray();
+    }
+
+    /**
+     * A chunk of appends as a whole method body
+     */
+    private static byte[] chunkCode(final ByteArrayOutputStream appends) {
+        final ByteArrayOutputStream code = new ByteArrayOutputStream(appends.size() + 1);
+        code.write(appends.toByteArray(), 0, appends.size());
+        code.write(RETURN);
+        return code.toByteArray();
+    }
+
+    private static void pushInt(final DataOutputStream code, final int i) throws IOException {
+        if (i <= 5) {
+            code.writeByte(ICONST_0 + i);
+        } else if (i <= Byte.MAX_VALUE) {
+            code.writeByte(BIPUSH);
+            code.writeByte(i);
+        } else {
+            code.writeByte(SIPUSH);
+            code.writeShort(i);
+        }
+    }
+
+    private static void writeMethod(final DataOutputStream out, final int access, final int name, final int desc, final int codeName, final int maxStack, final int maxLocals, final byte[] code) throws IOException {
+        out.writeShort(access);
+        out.writeShort(name);
+        out.writeShort(desc);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        //max stack, max locals, code length and code, no exception table, no attributes
+        out.writeInt(2 + 2 + 4 + code.length + 2 + 2);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0);
+        out.writeShort(0);
+    }
+
+    private static class ConstantPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> utf8s = new HashMap<String, Integer>();
+        private final Map<String, Integer> strings = new HashMap<String, Integer>();
+        /**
+         * The index of the next entry, indexes start at 1
+         */
+        private int next = 1;
+
+        int utf8(final String s) throws IOException {
+            Integer index = utf8s.get(s);
+            if (index == null) {
+                out.writeByte(CONSTANT_UTF8);
+                //throws if too long for a constant
+                out.writeUTF(s);
+                index = nextIndex();
+                utf8s.put(s, index);
+            }
+            return index;
+        }
+
+        int classRef(final String internalName) throws IOException {
+            return entry(CONSTANT_CLASS, utf8(internalName));
+        }
+
+        int string(final String s) throws IOException {
+            Integer index = strings.get(s);
+            if (index == null) {
+                index = entry(CONSTANT_STRING, utf8(s));
+                strings.put(s, index);
+            }
+            return index;
+        }
+
+        int methodRef(final int owner, final String name, final String desc) throws IOException {
+            final int nameAndType = entry(CONSTANT_NAME_AND_TYPE, utf8(name), utf8(desc));
+            return entry(CONSTANT_METHODREF, owner, nameAndType);
+        }
+
+        int interfaceMethodRef(final int owner, final String name, final String desc) throws IOException {
+            final int nameAndType = entry(CONSTANT_NAME_AND_TYPE, utf8(name), utf8(desc));
+            return entry(CONSTANT_INTERFACE_METHODREF, owner, nameAndType);
+        }
+
+        private int entry(final int tag, final int... refs) throws IOException {
+            out.writeByte(tag);
+            for (final int ref : refs) {
+                out.writeShort(ref);
+            }
+            return nextIndex();
+        }
+
+        private int nextIndex() throws IOException {
+            if (next >= 0xffff) {
+                throw new IOException("Too many constants");
+            }
+            return next++;
+        }
+
+        void writeTo(final DataOutputStream dest) throws IOException {
+            out.flush();
+            dest.writeShort(next);
+            bytes.writeTo(dest);
+        }
+    }
+
+    private static class RendererClassLoader extends ClassLoader {
+        RendererClassLoader(final ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(final String name, final byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import static org.codemucker.lang.Check.checkNoNullItems;
+import static org.codemucker.lang.Check.checkNotNull;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Common {@link VariableResolver}s
+ */
+public final class Resolvers {
+
+    private static final VariableResolver EMPTY = new VariableResolver() {
+        @Override
+        public Object resolve(final String name) {
+            return ABSENT;
+        }
+    };
+
+    private static final VariableResolver SYSTEM_PROPERTIES = new VariableResolver() {
+        @Override
+        public Object resolve(final String name) {
+            final String value = System.getProperty(name);
+            return value == null ? ABSENT : value;
+        }
+    };
+
+    private static final VariableResolver ENVIRONMENT = new VariableResolver() {
+        @Override
+        public Object resolve(final String name) {
+            final String value = System.getenv(name);
+            return value == null ? ABSENT : value;
+        }
+    };
+
+    private Resolvers(){
+        //static only
+    }
+
+    /**
+     * A resolver which knows no variables
+     */
+    public static VariableResolver empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Resolve from the given map. A key mapped to null is a known variable with no value. A null map knows no variables
+     */
+    public static VariableResolver fromMap(final Map<String, ?> vars) {
+        if (vars == null) {
+            return EMPTY;
+        }
+        return new MapResolver(vars);
+    }
+
+    /**
+     * Resolve dotted property paths (e.g. 'order.customer.name') against the given root bean or map. See {@link BeanPathResolver}
+     */
+    public static VariableResolver fromBean(final Object root) {
+        return new BeanPathResolver(root);
+    }
+
+    /**
+     * Look up each of a batch of variables concurrently via the given resolver, running each lookup as a task on the
+     * given executor. The resolver must be threadsafe. Anything thrown by a lookup, including errors, fails the render
+     */
+    public static AsyncVariableResolver async(final VariableResolver resolver, final Executor executor) {
+        checkNotNull("resolver", resolver);
+        checkNotNull("executor", executor);
+        return new AsyncVariableResolver() {
+            @Override
+            public void resolveAll(final Set<String> names, final Callback callback) {
+                for (final String name : names) {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            final Object value;
+                            try {
+                                value = resolver.resolve(name);
+                            } catch (final Throwable t) {
+                                //errors too, else the render would never complete
+                                callback.onFailed(name, t);
+                                return;
+                            }
+                            callback.onResolved(name, value);
+                        }
+                    });
+                }
+            }
+        };
+    }
+
+    /**
+     * Resolve from the system properties, read at lookup time
+     */
+    public static VariableResolver systemProperties() {
+        return SYSTEM_PROPERTIES;
+    }
+
+    /**
+     * Resolve from the environment variables
+     */
+    public static VariableResolver environment() {
+        return ENVIRONMENT;
+    }
+
+    /**
+     * Ask each resolver in turn, returning the first value found
+     */
+    public static VariableResolver chain(final VariableResolver... resolvers) {
+        checkNoNullItems("resolvers", resolvers);
+        if (resolvers.length == 1) {
+            return resolvers[0];
+        }
+        return new ChainResolver(resolvers.clone());
+    }
+
+    /**
+     * Resolve all variables the given resolver doesn't know to the given default value
+     */
+    public static VariableResolver withDefault(final VariableResolver resolver, final Object defaultValue) {
+        checkNotNull("resolver", resolver);
+        return new VariableResolver() {
+            @Override
+            public Object resolve(final String name) {
+                final Object value = resolver.resolve(name);
+                return value == ABSENT ? defaultValue : value;
+            }
+        };
+    }
+
+    private static class MapResolver implements VariableResolver {
+        private final Map<String, ?> vars;
+
+        MapResolver(final Map<String, ?> vars) {
+            this.vars = vars;
+        }
+
+        @Override
+        public Object resolve(final String name) {
+            //only check for the key if we get a null, saves a second lookup in the common case
+            final Object value = vars.get(name);
+            if (value == null && !vars.containsKey(name)) {
+                return ABSENT;
+            }
+            return value;
+        }
+    }
+
+    private static class ChainResolver implements VariableResolver {
+        private final VariableResolver[] resolvers;
+
+        ChainResolver(final VariableResolver[] resolvers) {
+            this.resolvers = resolvers;
+        }
+
+        @Override
+        public Object resolve(final String name) {
+            for (final VariableResolver resolver : resolvers) {
+                final Object value = resolver.resolve(name);
+                if (value != ABSENT) {
+                    return value;
+                }
+            }
+            return ABSENT;
+        }
+    }
+}
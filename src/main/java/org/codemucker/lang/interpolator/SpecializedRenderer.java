@@ -0,0 +1,39 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import java.io.IOException;
+
+/**
+ * Renders one particular template with a straight line sequence of appends. Implemented by classes generated at runtime
+ * for hot templates, see {@link Template#specializeAfter(int)}. Public only so the generated classes, which are defined in
+ * their own class loader, can implement it.
+ */
+public interface SpecializedRenderer {
+
+    /**
+     * Append the template's literals, and each of its slots via the given slots
+     */
+    void render(Slots slots, VariableResolver resolver, StringBuilder out) throws IOException;
+
+    /**
+     * Appends the value of a template slot, as the generic render would
+     */
+    interface Slots {
+
+        void append(VariableResolver resolver, int slot, StringBuilder out) throws IOException;
+    }
+}
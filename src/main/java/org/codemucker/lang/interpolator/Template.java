@@ -0,0 +1,483 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import static org.codemucker.lang.Check.checkNotNull;
+import static org.codemucker.lang.Check.checkTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.codemucker.lang.annotation.ThreadSafe;
+
+/**
+ * A pre-parsed interpolation template. Create via {@link Interpolator#compile(CharSequence)}.
+ *
+ * <p>The input is split once into literal segments and variable slots, so rendering is only a matter of
+ * concatenating them. Renders the same as {@link Interpolator#interpolate(CharSequence, Map)}:
+ * <ul>
+ *  <li>unknown variables are left as is (e.g. <pre>${name}</pre>)</li>
+ *  <li>null values are rendered as empty</li>
+ *  <li>variable names are trimmed</li>
+ * </ul>
+ * </p>
+ *
+ * <p>Values can be escaped as they are rendered, for the whole template or per variable, see {@link #withEscaper(Escaper)}</p>
+ *
+ * <p>Hot templates can be compiled to their own renderer class, see {@link #specializeAfter(int)}</p>
+ *
+ * <p>The parsed template never changes, but it caches state derived from it between renders (e.g. the encoded literal
+ * segments), so isn't strictly immutable</p>
+ */
+@ThreadSafe
+public final class Template {
+
+    private final String source;
+    /**
+     * Always one more than the number of vars. Literal i comes before var i
+     */
+    private final String[] literals;
+    private final String[] varNames;
+    /**
+     * The original token text for each var, output when the var can't be resolved
+     */
+    private final String[] tokens;
+    /**
+     * The escaper for each var, or null if not escaped
+     */
+    private final Escaper[] escapers;
+    private final int literalLength;
+    /**
+     * Generate a specialized renderer after this many renders, 0 to never
+     */
+    private final int specializeAfter;
+    /**
+     * Only approximate, as updated without locking
+     */
+    private volatile int renderCount;
+    private volatile SpecializedRenderer specialized;
+    /**
+     * Set if a renderer couldn't be generated, so generation isn't attempted again
+     */
+    private volatile boolean unspecializable;
+    /**
+     * The literals and tokens encoded in the last used charset. Usually only ever one charset is used per template
+     */
+    private volatile EncodedSegments encoded;
+
+    /**
+     * Called back by the specialized renderer for each slot, so values are appended (and escaped) as per the generic
+     * render
+     */
+    private final SpecializedRenderer.Slots slots = new SpecializedRenderer.Slots() {
+        @Override
+        public void append(final VariableResolver resolver, final int slot, final StringBuilder out) throws IOException {
+            appendValue(resolver, slot, out);
+        }
+    };
+
+    private Template(final String source, final String[] literals, final String[] varNames, final String[] tokens, final Escaper[] escapers, final int specializeAfter) {
+        this.source = source;
+        this.literals = literals;
+        this.varNames = varNames;
+        this.tokens = tokens;
+        this.escapers = escapers;
+        this.specializeAfter = specializeAfter;
+        int len = 0;
+        for (final String literal : literals) {
+            len += literal.length();
+        }
+        this.literalLength = len;
+    }
+
+    static Template parse(final CharSequence input) {
+        return parse(input, Delimiters.DEFAULT);
+    }
+
+    static Template parse(final CharSequence input, final Delimiters delimiters) {
+        checkNotNull("input", input);
+        checkNotNull("delimiters", delimiters);
+        final Builder builder = new Builder();
+        try {
+            TemplateScanner.scan(input, delimiters, builder);
+        } catch (final IOException e) {
+            //should never be thrown as the builder does no IO
+            throw new RuntimeException("Unexpected IO error whilst parsing template", e);
+        }
+        return builder.build(input.toString());
+    }
+
+    public String render(final Map<String, ?> vars) {
+        if (vars == null || vars.size() == 0 || varNames.length == 0) {
+            return source;
+        }
+        return renderWith(Resolvers.fromMap(vars));
+    }
+
+    public String renderWith(final VariableResolver resolver) {
+        if (varNames.length == 0) {
+            return source;
+        }
+        final StringBuilder sb = new StringBuilder(estimateLength());
+        renderWith(resolver, sb);
+        return sb.toString();
+    }
+
+    public void renderTo(final Map<String, ?> vars, final StringBuilder out) {
+        renderWith(Resolvers.fromMap(vars), out);
+    }
+
+    public void renderWith(final VariableResolver resolver, final StringBuilder out) {
+        try {
+            renderWith(resolver, (Appendable) out);
+        } catch (final IOException e) {
+            //should never be thrown if we're only writing to a string builder
+            throw new RuntimeException("Unexpected IO error whilst writing to string builder", e);
+        }
+    }
+
+    public void renderTo(final Map<String, ?> vars, final Appendable out) throws IOException {
+        renderWith(Resolvers.fromMap(vars), out);
+    }
+
+    public void renderWith(final VariableResolver resolver, final Appendable out) throws IOException {
+        checkNotNull("resolver", resolver);
+        checkNotNull("out", out);
+        final RenderProbe probe = RenderProbe.start(resolver);
+        if (probe == null) {
+            render(resolver, out);
+        } else if (out instanceof StringBuilder) {
+            //count from the builder itself, so it can still be specialized
+            final StringBuilder sb = (StringBuilder) out;
+            final int start = sb.length();
+            render(probe, sb);
+            probe.finish(source, source.length(), sb.length() - start);
+        } else {
+            final RenderProbe.CountingAppendable counted = new RenderProbe.CountingAppendable(out);
+            render(probe, counted);
+            probe.finish(source, source.length(), counted.count);
+        }
+    }
+
+    private void render(final VariableResolver resolver, final Appendable out) throws IOException {
+        if (specializeAfter > 0 && out instanceof StringBuilder) {
+            final SpecializedRenderer renderer = specialized();
+            if (renderer != null) {
+                renderer.render(slots, resolver, (StringBuilder) out);
+                return;
+            }
+        }
+        final String[] literals = this.literals;
+        final int numVars = varNames.length;
+        for (int i = 0; i < numVars; i++) {
+            out.append(literals[i]);
+            appendValue(resolver, i, out);
+        }
+        out.append(literals[numVars]);
+    }
+
+    private void appendValue(final VariableResolver resolver, final int slot, final Appendable out) throws IOException {
+        final Object val = resolver.resolve(varNames[slot]);
+        if (val == VariableResolver.ABSENT) {
+            out.append(tokens[slot]);
+        } else if (val != null) {
+            final Escaper escaper = escapers[slot];
+            if (escaper == null) {
+                out.append(val.toString());
+            } else {
+                escaper.escape(val instanceof CharSequence ? (CharSequence) val : val.toString(), out);
+            }
+        }
+    }
+
+    public long renderTo(final Map<String, ?> vars, final GatheringByteChannel out, final Charset charset) throws IOException {
+        return renderWith(Resolvers.fromMap(vars), out, charset);
+    }
+
+    /**
+     * Render straight to the given channel with a single vectored write of the pre-encoded literal segments and the
+     * encoded values, rather than building up the output and encoding it all. The channel should be in blocking mode,
+     * as this retries until everything is written
+     *
+     * @return the number of bytes written
+     */
+    public long renderWith(final VariableResolver resolver, final GatheringByteChannel out, final Charset charset) throws IOException {
+        checkNotNull("out", out);
+        final ByteBuffer[] buffers = renderBuffers(resolver, charset);
+        long written = 0;
+        int offset = 0;
+        while (offset < buffers.length) {
+            written += out.write(buffers, offset, buffers.length - offset);
+            while (offset < buffers.length && !buffers[offset].hasRemaining()) {
+                offset++;
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Render to a list of buffers, which concatenated make up the output. The literal segments are encoded once per
+     * template and shared (read-only) between renders, so only the values are encoded. Empty segments are left out
+     */
+    public ByteBuffer[] renderBuffers(final VariableResolver resolver, final Charset charset) {
+        checkNotNull("resolver", resolver);
+        final RenderProbe probe = RenderProbe.start(resolver);
+        if (probe == null) {
+            return renderBuffers(resolver, encodedIn(charset));
+        }
+        final EncodedSegments segments = encodedIn(charset);
+        final ByteBuffer[] buffers = renderBuffers(probe, segments);
+        long size = 0;
+        for (final ByteBuffer buffer : buffers) {
+            size += buffer.remaining();
+        }
+        probe.finish(source, segments.sourceSize, size);
+        return buffers;
+    }
+
+    private ByteBuffer[] renderBuffers(final VariableResolver resolver, final EncodedSegments segments) {
+        final Charset charset = segments.charset;
+        final ByteBuffer[] literals = segments.literals;
+        final String[] varNames = this.varNames;
+        final int numVars = varNames.length;
+        final ByteBuffer[] buffers = new ByteBuffer[numVars * 2 + 1];
+        int count = 0;
+        for (int i = 0; i < numVars; i++) {
+            if (literals[i].hasRemaining()) {
+                buffers[count++] = literals[i].duplicate();
+            }
+            final Object val = resolver.resolve(varNames[i]);
+            if (val == VariableResolver.ABSENT) {
+                buffers[count++] = segments.tokens[i].duplicate();
+            } else if (val != null) {
+                final String s = renderValue(i, val);
+                if (s.length() > 0) {
+                    buffers[count++] = ByteBuffer.wrap(s.getBytes(charset));
+                }
+            }
+        }
+        if (literals[numVars].hasRemaining() || count == 0) {
+            buffers[count++] = literals[numVars].duplicate();
+        }
+        if (count == buffers.length) {
+            return buffers;
+        }
+        final ByteBuffer[] trimmed = new ByteBuffer[count];
+        System.arraycopy(buffers, 0, trimmed, 0, count);
+        return trimmed;
+    }
+
+    private EncodedSegments encodedIn(final Charset charset) {
+        checkNotNull("charset", charset);
+        EncodedSegments segments = encoded;
+        if (segments == null || !segments.charset.equals(charset)) {
+            //racing threads may encode twice, which is harmless
+            segments = new EncodedSegments(charset, source, literals, tokens);
+            encoded = segments;
+        }
+        return segments;
+    }
+
+    private SpecializedRenderer specialized() {
+        SpecializedRenderer renderer = specialized;
+        if (renderer == null) {
+            if (unspecializable || ++renderCount < specializeAfter) {
+                return null;
+            }
+            synchronized (literals) {
+                renderer = specialized;
+                if (renderer == null && !unspecializable) {
+                    renderer = RendererGenerator.generate(literals);
+                    if (renderer == null) {
+                        unspecializable = true;
+                    } else {
+                        specialized = renderer;
+                    }
+                }
+            }
+        }
+        return renderer;
+    }
+
+    /**
+     * A copy of this template which, once it has been rendered the given number of times, generates and switches to a
+     * renderer class specific to it, with the literals as constants and a straight line sequence of appends. Only
+     * renders to a string or string builder are specialized. If the class can't be generated, the template carries on
+     * as normal.
+     *
+     * @param renders how many renders before specializing, 0 to never specialize
+     */
+    public Template specializeAfter(final int renders) {
+        checkTrue("renders", renders, renders >= 0, "zero or more");
+        return new Template(source, literals, varNames, tokens, escapers, renders);
+    }
+
+    /**
+     * Whether this template has switched to a specialized renderer
+     */
+    boolean isSpecialized() {
+        return specialized != null;
+    }
+
+    /**
+     * Render once all the variables have been looked up via the given resolver, which is asked for all the distinct
+     * variable names at once. The render happens on whichever thread reports the last value
+     */
+    public RenderFuture renderAsync(final AsyncVariableResolver resolver) {
+        checkNotNull("resolver", resolver);
+        return AsyncRender.render(this, resolver);
+    }
+
+    /**
+     * A copy of this template which escapes all its values with the given escaper, e.g. {@link Escapers#HTML}. Null
+     * for no escaping. Unresolved tokens are output as is
+     */
+    public Template withEscaper(final Escaper escaper) {
+        final Escaper[] escapers = new Escaper[varNames.length];
+        Arrays.fill(escapers, escaper);
+        return new Template(source, literals, varNames, tokens, escapers, specializeAfter);
+    }
+
+    /**
+     * A copy of this template which escapes the values of the given variable with the given escaper, null for no
+     * escaping. Other variables are escaped as before
+     */
+    public Template withEscaper(final String varName, final Escaper escaper) {
+        checkNotNull("varName", varName);
+        final Escaper[] escapers = this.escapers.clone();
+        for (int i = 0; i < varNames.length; i++) {
+            if (varNames[i].equals(varName)) {
+                escapers[i] = escaper;
+            }
+        }
+        return new Template(source, literals, varNames, tokens, escapers, specializeAfter);
+    }
+
+    /**
+     * The text to render for the given non null value in the given slot, escaped if need be
+     */
+    String renderValue(final int slot, final Object val) {
+        final Escaper escaper = escapers[slot];
+        if (escaper == null) {
+            return val.toString();
+        }
+        return Escapers.escape(escaper, val instanceof CharSequence ? (CharSequence) val : val.toString());
+    }
+
+    /**
+     * A guess at the rendered size, to size output buffers
+     */
+    public int estimateLength() {
+        return literalLength + varNames.length * 16;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * The number of variable slots in this template. The same variable can appear in multiple slots
+     */
+    public int getNumVars() {
+        return varNames.length;
+    }
+
+    /**
+     * The (trimmed) name of the variable in the given slot
+     */
+    public String getVarName(final int slot) {
+        return varNames[slot];
+    }
+
+    /**
+     * The literal text before the given slot, or after the last one when the slot is the number of vars
+     */
+    String getLiteral(final int slot) {
+        return literals[slot];
+    }
+
+    /**
+     * The original token text of the given slot
+     */
+    String getToken(final int slot) {
+        return tokens[slot];
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+
+    private static class EncodedSegments {
+        final Charset charset;
+        final ByteBuffer[] literals;
+        final ByteBuffer[] tokens;
+        /**
+         * The encoded size of the whole template, reported as the render's input size
+         */
+        final int sourceSize;
+
+        EncodedSegments(final Charset charset, final String source, final String[] literals, final String[] tokens) {
+            this.charset = charset;
+            this.literals = encode(charset, literals);
+            this.tokens = encode(charset, tokens);
+            this.sourceSize = source.getBytes(charset).length;
+        }
+
+        private static ByteBuffer[] encode(final Charset charset, final String[] values) {
+            final ByteBuffer[] encoded = new ByteBuffer[values.length];
+            for (int i = 0; i < values.length; i++) {
+                encoded[i] = ByteBuffer.wrap(values[i].getBytes(charset)).asReadOnlyBuffer();
+            }
+            return encoded;
+        }
+    }
+
+    private static class Builder implements TemplateScanner.Handler {
+        private final List<String> literals = new ArrayList<String>();
+        private final List<String> varNames = new ArrayList<String>();
+        private final List<String> tokens = new ArrayList<String>();
+        private final StringBuilder literal = new StringBuilder();
+
+        @Override
+        public void onLiteral(final CharSequence src, final int start, final int end) {
+            literal.append(src, start, end);
+        }
+
+        @Override
+        public void onVar(final CharSequence src, final int tokenStart, final int tokenEnd, final String varName) {
+            literals.add(literal.toString());
+            literal.setLength(0);
+            varNames.add(varName);
+            tokens.add(src.subSequence(tokenStart, tokenEnd).toString());
+        }
+
+        Template build(final String source) {
+            literals.add(literal.toString());
+            return new Template(source, toArray(literals), toArray(varNames), toArray(tokens), new Escaper[varNames.size()], 0);
+        }
+
+        private static String[] toArray(final List<String> list) {
+            return list.toArray(new String[list.size()]);
+        }
+    }
+}
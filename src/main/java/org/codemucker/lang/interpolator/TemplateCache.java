@@ -0,0 +1,305 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import static org.codemucker.lang.Check.checkNotNull;
+import static org.codemucker.lang.Check.checkTrue;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.codemucker.lang.IBuilder;
+import org.codemucker.lang.annotation.ThreadSafe;
+
+/**
+ * A bounded cache of parsed {@link Template}s, keyed by their source text, so the parse cost is only paid once per
+ * distinct template.
+ *
+ * <p>Bounded by entry count and/or total weight, where the weight of an entry is the length of its source. Least
+ * recently used entries are evicted first. To keep contention down the cache is split into a number of independently
+ * locked segments, each evicting on its own, so the eviction order is only LRU within a segment</p>
+ *
+ * <p>Usage:
+ * <pre>
+ * TemplateCache cache = TemplateCache.builder().maxEntries(1000).build();
+ * ...
+ * String s = cache.interpolate("the ${animal} jumped over the ${what}", vars);
+ * </pre>
+ * </p>
+ */
+@ThreadSafe
+public class TemplateCache {
+
+    private final Segment[] segments;
+    private final int segmentMask;
+
+    private final int specializeAfter;
+
+    private TemplateCache(final int numSegments, final long maxEntries, final long maxWeight, final int specializeAfter) {
+        this.specializeAfter = specializeAfter;
+        segments = new Segment[numSegments];
+        for (int i = 0; i < numSegments; i++) {
+            segments[i] = new Segment(divide(maxEntries, numSegments), divide(maxWeight, numSegments));
+        }
+        segmentMask = numSegments - 1;
+    }
+
+    private static long divide(final long max, final int numSegments) {
+        return max == Long.MAX_VALUE ? max : Math.max(1, max / numSegments);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Interpolate the given template source using a cached parse of it
+     */
+    public CharSequence interpolate(final CharSequence source, final Map<String, ?> vars) {
+        if (source == null) {
+            return null;
+        }
+        return get(source).render(vars);
+    }
+
+    /**
+     * Return the parsed template for the given source, parsing and caching it if not already cached
+     */
+    public Template get(final CharSequence source) {
+        checkNotNull("source", source);
+        final String key = source.toString();
+        final Segment segment = segmentFor(key);
+        Template template = segment.get(key);
+        if (template == null) {
+            //parse outside the lock, worst case two threads parse the same template
+            Template parsed = Template.parse(key);
+            if (specializeAfter > 0) {
+                parsed = parsed.specializeAfter(specializeAfter);
+            }
+            template = segment.putIfAbsent(key, parsed);
+        }
+        return template;
+    }
+
+    private Segment segmentFor(final String key) {
+        int h = key.hashCode();
+        //spread the bits so the top bits also pick the segment
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return segments[h & segmentMask];
+    }
+
+    public void clear() {
+        for (final Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (final Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * The total weight (source length) of all the cached templates
+     */
+    public long getWeight() {
+        long weight = 0;
+        for (final Segment segment : segments) {
+            weight += segment.getWeight();
+        }
+        return weight;
+    }
+
+    public long getHitCount() {
+        long count = 0;
+        for (final Segment segment : segments) {
+            count += segment.getHitCount();
+        }
+        return count;
+    }
+
+    public long getMissCount() {
+        long count = 0;
+        for (final Segment segment : segments) {
+            count += segment.getMissCount();
+        }
+        return count;
+    }
+
+    public long getEvictionCount() {
+        long count = 0;
+        for (final Segment segment : segments) {
+            count += segment.getEvictionCount();
+        }
+        return count;
+    }
+
+    /**
+     * The ratio of hits to lookups, between 0 and 1. 1 if there have been no lookups yet
+     */
+    public double getHitRate() {
+        final long hits = getHitCount();
+        final long total = hits + getMissCount();
+        return total == 0 ? 1.0 : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[size=" + size() + ",weight=" + getWeight() + ",hits=" + getHitCount()
+                + ",misses=" + getMissCount() + ",evictions=" + getEvictionCount() + "]";
+    }
+
+    /**
+     * An independently locked LRU map
+     */
+    private static class Segment {
+        private final LinkedHashMap<String, Template> map = new LinkedHashMap<String, Template>(16, 0.75f, true);
+        private final long maxEntries;
+        private final long maxWeight;
+        private long weight;
+        private long hits;
+        private long misses;
+        private long evictions;
+
+        Segment(final long maxEntries, final long maxWeight) {
+            this.maxEntries = maxEntries;
+            this.maxWeight = maxWeight;
+        }
+
+        synchronized Template get(final String key) {
+            final Template template = map.get(key);
+            if (template == null) {
+                misses++;
+            } else {
+                hits++;
+            }
+            return template;
+        }
+
+        synchronized Template putIfAbsent(final String key, final Template template) {
+            final Template existing = map.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            map.put(key, template);
+            weight += key.length();
+            evict();
+            return template;
+        }
+
+        private void evict() {
+            final Iterator<Map.Entry<String, Template>> eldest = map.entrySet().iterator();
+            //always keep the newest entry, even if on its own it's over the max weight
+            while ((map.size() > maxEntries || weight > maxWeight) && map.size() > 1) {
+                final Map.Entry<String, Template> entry = eldest.next();
+                weight -= entry.getKey().length();
+                eldest.remove();
+                evictions++;
+            }
+        }
+
+        synchronized void clear() {
+            map.clear();
+            weight = 0;
+        }
+
+        synchronized int size() {
+            return map.size();
+        }
+
+        synchronized long getWeight() {
+            return weight;
+        }
+
+        synchronized long getHitCount() {
+            return hits;
+        }
+
+        synchronized long getMissCount() {
+            return misses;
+        }
+
+        synchronized long getEvictionCount() {
+            return evictions;
+        }
+    }
+
+    public static class Builder implements IBuilder<TemplateCache> {
+        private static final int DEFAULT_CONCURRENCY = 16;
+        /**
+         * Don't split the cache up so much that each segment is too small to be a useful LRU
+         */
+        private static final int MIN_ENTRIES_PER_SEGMENT = 16;
+
+        private long maxEntries = Long.MAX_VALUE;
+        private long maxWeight = Long.MAX_VALUE;
+        private int concurrencyLevel = DEFAULT_CONCURRENCY;
+        private int specializeAfter;
+
+        /**
+         * The max number of templates to cache
+         */
+        public Builder maxEntries(final long maxEntries) {
+            checkTrue("maxEntries", maxEntries, maxEntries > 0, "greater than zero");
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        /**
+         * The max total length of the cached template sources
+         */
+        public Builder maxWeight(final long maxWeight) {
+            checkTrue("maxWeight", maxWeight, maxWeight > 0, "greater than zero");
+            this.maxWeight = maxWeight;
+            return this;
+        }
+
+        /**
+         * Roughly how many threads are expected to use the cache at once. Defaults to 16
+         */
+        public Builder concurrencyLevel(final int concurrencyLevel) {
+            checkTrue("concurrencyLevel", concurrencyLevel, concurrencyLevel > 0, "greater than zero");
+            this.concurrencyLevel = concurrencyLevel;
+            return this;
+        }
+
+        /**
+         * Generate a specialized renderer for each cached template once it has been rendered this many times. See
+         * {@link Template#specializeAfter(int)}. Defaults to 0, never
+         */
+        public Builder specializeAfter(final int renders) {
+            checkTrue("renders", renders, renders >= 0, "zero or more");
+            this.specializeAfter = renders;
+            return this;
+        }
+
+        @Override
+        public TemplateCache build() {
+            checkTrue("maxEntries/maxWeight", maxEntries, maxEntries != Long.MAX_VALUE || maxWeight != Long.MAX_VALUE, "bounded by either max entries or max weight");
+            long segments = Math.min(concurrencyLevel, maxEntries / MIN_ENTRIES_PER_SEGMENT);
+            //weight is measured in chars, assume a template is at least a line or so
+            segments = Math.min(segments, maxWeight / (MIN_ENTRIES_PER_SEGMENT * 64L));
+            //round down to a power of two so we can mask to find the segment
+            final int numSegments = segments <= 1 ? 1 : Integer.highestOneBit((int) Math.min(segments, 1 << 16));
+            return new TemplateCache(numSegments, maxEntries, maxWeight, specializeAfter);
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import java.io.IOException;
+
+/**
+ * I split a char sequence into literal runs and <pre>${var}</pre> tokens, following the same rules as the
+ * original reader based parser:
+ *
+ * <ul>
+ *  <li>a '$' not followed by '{' is plain content</li>
+ *  <li>a '$' inside an open token abandons that token (which is output as is), and starts a new one</li>
+ *  <li>an unterminated token is output as is</li>
+ *  <li>variable names are trimmed</li>
+ * </ul>
+ *
+ * Rather than walking char by char I jump between '$' chars, so long literal runs are handed to the handler in one go.
+ *
+ * <p>Other {@link Delimiters} follow the same rules, jumping between occurrences of the first char of the start delimiter.
+ * An abandoned token is retried from its second char, so with double braces <pre>{{{food}}</pre> is a '{' followed by a
+ * token, just as <pre>$${food}</pre> is a '$' followed by a token with the default delimiters</p>
+ */
+final class TemplateScanner {
+
+    /**
+     * Receives the parts of the scanned input, in order
+     */
+    interface Handler {
+        /**
+         * A run of plain content, from start (inclusive) to end (exclusive)
+         */
+        void onLiteral(CharSequence src, int start, int end) throws IOException;
+
+        /**
+         * A complete token. The token text (including the '${' and '}') runs from tokenStart (inclusive) to tokenEnd (exclusive)
+         */
+        void onVar(CharSequence src, int tokenStart, int tokenEnd, String varName) throws IOException;
+    }
+
+    private TemplateScanner(){
+        //static only
+    }
+
+    public static void scan(final CharSequence src, final Handler handler) throws IOException {
+        scan(src, 0, src.length(), true, handler);
+    }
+
+    public static void scan(final CharSequence src, final Delimiters delimiters, final Handler handler) throws IOException {
+        scan(src, 0, src.length(), true, delimiters, handler);
+    }
+
+    /**
+     * As per {@link #scan(CharSequence, int, int, boolean, Handler)} but using the given delimiters
+     */
+    public static int scan(final CharSequence src, final int start, final int end, final boolean endOfInput, final Delimiters delimiters, final Handler handler) throws IOException {
+        if (delimiters.isDefault()) {
+            return scan(src, start, end, endOfInput, handler);
+        }
+        return scanDelimited(src, start, end, endOfInput, delimiters, handler);
+    }
+
+    /**
+     * Scan the given range of the input.
+     *
+     * <p>If this is not the end of the input, then a trailing '$' or unterminated token is not passed to the handler, as
+     * more input could complete it. The caller is expected to carry it over to the start of the next scan</p>
+     *
+     * @return the position up to which the input was passed to the handler. Always the end if endOfInput is true
+     */
+    public static int scan(final CharSequence src, final int start, final int end, final boolean endOfInput, final Handler handler) throws IOException {
+        int literalStart = start;
+        int pos = start;
+        while (pos < end) {
+            final int dollar = indexOf(src, '$', pos, end);
+            if (dollar == -1) {
+                break;
+            }
+            if (dollar + 1 >= end) {
+                if (!endOfInput) {
+                    return flushLiteral(src, literalStart, dollar, handler);
+                }
+                break;
+            }
+            if (src.charAt(dollar + 1) != '{') {
+                //plain content. If the next char is also a '$' we pick it up on the next search
+                pos = dollar + 1;
+                continue;
+            }
+            //start of a token, find the end, or the start of another token
+            int tokenEnd = dollar + 2;
+            char c = 0;
+            while (tokenEnd < end) {
+                c = src.charAt(tokenEnd);
+                if (c == '}' || c == '$') {
+                    break;
+                }
+                tokenEnd++;
+            }
+            if (tokenEnd >= end) {
+                if (!endOfInput) {
+                    return flushLiteral(src, literalStart, dollar, handler);
+                }
+                //unterminated, the rest is all content
+                break;
+            }
+            if (c == '$') {
+                //not a token, carry on from the new '$'
+                pos = tokenEnd;
+                continue;
+            }
+            if (dollar > literalStart) {
+                handler.onLiteral(src, literalStart, dollar);
+            }
+            handler.onVar(src, dollar, tokenEnd + 1, trimmedName(src, dollar + 2, tokenEnd));
+            literalStart = tokenEnd + 1;
+            pos = literalStart;
+        }
+        return flushLiteral(src, literalStart, end, handler);
+    }
+
+    /**
+     * The general form of the default scan, for any delimiters
+     */
+    static int scanDelimited(final CharSequence src, final int start, final int end, final boolean endOfInput, final Delimiters delimiters, final Handler handler) throws IOException {
+        final String open = delimiters.getStart();
+        final String close = delimiters.getEnd();
+        final char openChar = open.charAt(0);
+        final char closeChar = close.charAt(0);
+        final int openLen = open.length();
+        final int closeLen = close.length();
+        int literalStart = start;
+        int pos = start;
+        while (pos < end) {
+            final int tokenStart = indexOf(src, openChar, pos, end);
+            if (tokenStart == -1) {
+                break;
+            }
+            final int nameStart = tokenStart + openLen;
+            if (nameStart > end) {
+                if (!endOfInput && regionMatches(src, tokenStart, end, open)) {
+                    //could be completed by more input
+                    return flushLiteral(src, literalStart, tokenStart, handler);
+                }
+                pos = tokenStart + 1;
+                continue;
+            }
+            if (!regionMatches(src, tokenStart, nameStart, open)) {
+                //plain content
+                pos = tokenStart + 1;
+                continue;
+            }
+            //start of a token, find the end, or the start of another token
+            int nameEnd = nameStart;
+            boolean closed = false;
+            while (nameEnd < end) {
+                final char c = src.charAt(nameEnd);
+                if (c == closeChar && nameEnd + closeLen <= end && regionMatches(src, nameEnd, nameEnd + closeLen, close)) {
+                    closed = true;
+                    break;
+                }
+                if (c == openChar) {
+                    break;
+                }
+                nameEnd++;
+            }
+            if (!closed) {
+                if (nameEnd < end) {
+                    //not a token, retry from just after its start, which finds the next start char at or before the
+                    //one which abandoned it
+                    pos = tokenStart + 1;
+                    continue;
+                }
+                if (!endOfInput) {
+                    return flushLiteral(src, literalStart, tokenStart, handler);
+                }
+                //unterminated, the rest is all content
+                break;
+            }
+            if (tokenStart > literalStart) {
+                handler.onLiteral(src, literalStart, tokenStart);
+            }
+            final int tokenEnd = nameEnd + closeLen;
+            handler.onVar(src, tokenStart, tokenEnd, trimmedName(src, nameStart, nameEnd));
+            literalStart = tokenEnd;
+            pos = literalStart;
+        }
+        return flushLiteral(src, literalStart, end, handler);
+    }
+
+    /**
+     * Whether the given range of the input matches the start of the given text
+     */
+    private static boolean regionMatches(final CharSequence src, final int start, final int end, final String text) {
+        for (int i = start; i < end; i++) {
+            if (src.charAt(i) != text.charAt(i - start)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int flushLiteral(final CharSequence src, final int start, final int end, final Handler handler) throws IOException {
+        if (end > start) {
+            handler.onLiteral(src, start, end);
+        }
+        return end;
+    }
+
+    private static String trimmedName(final CharSequence src, int start, int end) {
+        while (start < end && src.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && src.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return src.subSequence(start, end).toString();
+    }
+
+    static int indexOf(final CharSequence src, final char c, final int from, final int to) {
+        //only when searching to the end, else could search way past where we need to
+        if (src instanceof String && to == src.length()) {
+            return ((String) src).indexOf(c, from);
+        }
+        for (int i = from; i < to; i++) {
+            if (src.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
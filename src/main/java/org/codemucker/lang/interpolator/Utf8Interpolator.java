@@ -0,0 +1,221 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Interpolates UTF-8 bytes without decoding them. As '$', '{' and '}' are single byte chars which can never appear inside
+ * a multi-byte UTF-8 sequence, the input can be scanned as is. Literal bytes are copied straight through, only the
+ * variable names are decoded and the substituted values encoded.
+ */
+final class Utf8Interpolator {
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int STREAM_BUFFER_SIZE = 8 * 1024;
+
+    private Utf8Interpolator(){
+        //static only
+    }
+
+    /**
+     * Interpolate the remaining bytes of the input into a new heap buffer, ready to be read. Doesn't change the input's position
+     */
+    static ByteBuffer interpolate(final ByteBuffer in, final VariableResolver resolver) {
+        final int len = in.remaining();
+        final RenderProbe probe = RenderProbe.start(resolver);
+        final Utf8Writer writer = new Utf8Writer(probe == null ? resolver : probe, null, Interpolator.estimateLength(len));
+        try {
+            ByteTemplateScanner.scan(in, in.position(), in.limit(), true, UTF8, writer);
+        } catch (final IOException e) {
+            //should never be thrown as there's no stream to write to
+            throw new RuntimeException("Unexpected IO error whilst writing to buffer", e);
+        }
+        if (probe != null) {
+            probe.finish(new Utf8Template(in), len, writer.count);
+        }
+        return ByteBuffer.wrap(writer.buf, 0, writer.count);
+    }
+
+    static byte[] interpolate(final byte[] in, final VariableResolver resolver) {
+        final ByteBuffer out = interpolate(ByteBuffer.wrap(in), resolver);
+        return Arrays.copyOf(out.array(), out.limit());
+    }
+
+    /**
+     * Interpolate the remaining bytes of the input to the given stream, via a fixed size buffer. Doesn't change the input's position
+     */
+    static void interpolate(final ByteBuffer in, final VariableResolver resolver, final OutputStream out) throws IOException {
+        final RenderProbe probe = RenderProbe.start(resolver);
+        final Utf8Writer writer = new Utf8Writer(probe == null ? resolver : probe, out, STREAM_BUFFER_SIZE);
+        ByteTemplateScanner.scan(in, in.position(), in.limit(), true, UTF8, writer);
+        writer.flush();
+        if (probe != null) {
+            probe.finish(new Utf8Template(in), in.remaining(), -1);
+        }
+    }
+
+    /**
+     * The input as reported to the metrics listener, only decoded if the listener asks for the chars, so renders which
+     * need no template key don't pay for decoding the input
+     */
+    private static class Utf8Template implements CharSequence {
+        private final ByteBuffer bytes;
+        private String decoded;
+
+        Utf8Template(final ByteBuffer in) {
+            this.bytes = in.asReadOnlyBuffer();
+        }
+
+        private String decoded() {
+            if (decoded == null) {
+                decoded = UTF8.decode(bytes.duplicate()).toString();
+            }
+            return decoded;
+        }
+
+        @Override
+        public int length() {
+            return decoded().length();
+        }
+
+        @Override
+        public char charAt(final int index) {
+            return decoded().charAt(index);
+        }
+
+        @Override
+        public CharSequence subSequence(final int start, final int end) {
+            return decoded().subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return decoded();
+        }
+    }
+
+    /**
+     * Collects the output bytes, either growing the buffer as needed, or if writing to a stream, flushing it when full
+     */
+    private static class Utf8Writer implements ByteTemplateScanner.Handler {
+        private final VariableResolver resolver;
+        private final OutputStream out;
+        byte[] buf;
+        int count;
+
+        Utf8Writer(final VariableResolver resolver, final OutputStream out, final int initialSize) {
+            this.resolver = resolver;
+            this.out = out;
+            this.buf = new byte[Math.max(16, initialSize)];
+        }
+
+        @Override
+        public void onLiteral(final ByteBuffer src, int start, final int end) throws IOException {
+            while (start < end) {
+                final int n = Math.min(end - start, ensureSpace(end - start));
+                if (src.hasArray()) {
+                    System.arraycopy(src.array(), src.arrayOffset() + start, buf, count, n);
+                } else {
+                    final ByteBuffer slice = src.duplicate();
+                    slice.position(start);
+                    slice.get(buf, count, n);
+                }
+                count += n;
+                start += n;
+            }
+        }
+
+        @Override
+        public void onVar(final ByteBuffer src, final int tokenStart, final int tokenEnd, final String varName) throws IOException {
+            final Object varVal = resolver.resolve(varName);
+            if (varVal == VariableResolver.ABSENT) {
+                onLiteral(src, tokenStart, tokenEnd);
+            } else if (varVal != null) {
+                writeUtf8(varVal.toString());
+            }
+        }
+
+        private void writeUtf8(final String s) throws IOException {
+            final int len = s.length();
+            int i = 0;
+            while (i < len) {
+                //worst case 3 bytes per char (a surrogate pair is 4 bytes for 2 chars)
+                final int space = ensureSpace(Math.min(len - i, STREAM_BUFFER_SIZE) * 3) / 3;
+                final int end = Math.min(len, i + Math.max(1, space));
+                final byte[] buf = this.buf;
+                int count = this.count;
+                for (; i < end; i++) {
+                    final char c = s.charAt(i);
+                    if (c < 0x80) {
+                        buf[count++] = (byte) c;
+                    } else if (c < 0x800) {
+                        buf[count++] = (byte) (0xC0 | (c >> 6));
+                        buf[count++] = (byte) (0x80 | (c & 0x3F));
+                    } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                        if (i + 1 >= end) {
+                            //pair split across the space we have, do it on the next round
+                            break;
+                        }
+                        final int cp = Character.toCodePoint(c, s.charAt(++i));
+                        buf[count++] = (byte) (0xF0 | (cp >> 18));
+                        buf[count++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                        buf[count++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                        buf[count++] = (byte) (0x80 | (cp & 0x3F));
+                    } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                        //unpaired, same as the charset encoder's replacement
+                        buf[count++] = '?';
+                    } else {
+                        buf[count++] = (byte) (0xE0 | (c >> 12));
+                        buf[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                        buf[count++] = (byte) (0x80 | (c & 0x3F));
+                    }
+                }
+                this.count = count;
+            }
+        }
+
+        /**
+         * Make room for up to the given number of bytes
+         *
+         * @return the number of bytes there is room for, at least 4 (the longest char), at most the amount asked for
+         *         unless that's less than 4
+         */
+        private int ensureSpace(final int wanted) throws IOException {
+            final int want = Math.max(4, wanted);
+            if (buf.length - count < want) {
+                if (out != null) {
+                    flush();
+                } else {
+                    buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + want));
+                }
+            }
+            return Math.min(want, buf.length - count);
+        }
+
+        void flush() throws IOException {
+            if (count > 0) {
+                out.write(buf, 0, count);
+                count = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+/**
+ * Looks up the value of a variable, only ever called for the variables which actually appear in the input. Lets values
+ * be pulled straight from where they live (system properties, request attributes, config trees...) rather than
+ * copying them into a map first.
+ *
+ * <p>See {@link Resolvers} for the common implementations</p>
+ */
+public interface VariableResolver {
+
+    /**
+     * Returned when the resolver doesn't know the variable. Unknown variables are left as is in the output
+     */
+    Object ABSENT = new Object() {
+        @Override
+        public String toString() {
+            return "ABSENT";
+        }
+    };
+
+    /**
+     * Look up the value of the variable with the given (trimmed) name.
+     *
+     * @return the value, null if the variable is known but has no value (rendered as empty), or {@link #ABSENT} if the
+     *         variable is not known
+     */
+    Object resolve(String name);
+}
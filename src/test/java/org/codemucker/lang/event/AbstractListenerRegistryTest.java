@@ -0,0 +1,153 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.event;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class AbstractListenerRegistryTest {
+
+    @Test
+    public void ensure_remove_keeps_other_listeners(){
+        final Object a = new Object(), b = new Object(), c = new Object();
+        final TestRegistry registry = new TestRegistry();
+        registry.addAll(new Object[] { a, b, c, a });
+        assertArrayEquals(new Object[] { a, b, c }, registry.getListeners());
+
+        registry.remove(a);
+        assertArrayEquals(new Object[] { b, c }, registry.getListeners());
+        registry.remove(c);
+        assertArrayEquals(new Object[] { b }, registry.getListeners());
+        registry.remove(b);
+        assertArrayEquals(new Object[0], registry.getListeners());
+    }
+
+    @Test
+    public void ensure_fire_calls_all_listeners_despite_errors(){
+        final StringBuilder calls = new StringBuilder();
+        final TestRegistry registry = new TestRegistry();
+        registry.fire(APPEND, calls);
+        assertEquals("", calls.toString());
+
+        registry.add("a");
+        registry.fire(APPEND, calls);
+        assertEquals("a", calls.toString());
+
+        registry.addAll(new Object[] { "fail", "b" });
+        calls.setLength(0);
+        registry.fire(APPEND, calls);
+        assertEquals("ab", calls.toString());
+        assertEquals(Arrays.asList("fail"), registry.failed);
+    }
+
+    @Test
+    public void ensure_weak_listeners_dropped_once_collected() throws Exception {
+        final TestRegistry registry = new TestRegistry();
+        final Object strong = "strong";
+        Object weak = new StringBuilder("weak");
+        registry.add(strong);
+        registry.addWeak(weak);
+        registry.addWeak(weak);
+        registry.add(weak);
+        assertEquals(1, registry.getWeakListenerCount());
+        assertArrayEquals(new Object[] { strong, weak }, registry.getListeners());
+
+        final StringBuilder calls = new StringBuilder();
+        registry.fire(APPEND, calls);
+        assertEquals("strongweak", calls.toString());
+
+        weak = null;
+        for (int i = 0; i < 50 && registry.getWeakListenerCount() > 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+            calls.setLength(0);
+            registry.fire(APPEND, calls);
+        }
+        assertEquals(0, registry.getWeakListenerCount());
+        assertEquals("strong", calls.toString());
+        assertArrayEquals(new Object[] { strong }, registry.getListeners());
+    }
+
+    @Test
+    public void ensure_weak_listener_can_be_removed(){
+        final TestRegistry registry = new TestRegistry();
+        final Object a = new Object(), b = new Object();
+        registry.addWeak(a);
+        registry.addWeak(b);
+        registry.remove(a);
+        assertArrayEquals(new Object[] { b }, registry.getListeners());
+        registry.removeAll();
+        assertEquals(0, registry.getWeakListenerCount());
+    }
+
+    @Test
+    public void ensure_fire_async_reaches_strong_and_weak_listeners() throws Exception {
+        final TestRegistry registry = new TestRegistry();
+        final Object weak = new StringBuilder("weak");
+        registry.add("strong");
+        registry.addWeak(weak);
+        registry.addWeak("fail");
+        final AsyncDispatcher dispatcher = new AsyncDispatcher(new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                command.run();
+            }
+        }, 1);
+        final StringBuilder calls = new StringBuilder();
+        final DispatchFuture future = registry.fireAsync(dispatcher, APPEND, calls);
+        future.get(10, TimeUnit.SECONDS);
+        assertEquals("strongweak", calls.toString());
+        assertEquals(1, future.getFailedCount());
+        assertEquals(Arrays.asList("fail"), registry.failed);
+    }
+
+    private static final ListenerCallback<Object, StringBuilder> APPEND = new ListenerCallback<Object, StringBuilder>() {
+        @Override
+        public void call(final Object listener, final StringBuilder calls) throws Exception {
+            if ("fail".equals(listener)) {
+                throw new Exception("expected");
+            }
+            calls.append(listener);
+        }
+    };
+
+    private static class TestRegistry extends AbstractListenerRegistry<Object> {
+        final List<Object> failed = new ArrayList<Object>();
+
+        @Override
+        protected Object[] newArray(final int length) {
+            return new Object[length];
+        }
+
+        @Override
+        protected void onListenerError(final Object listener, final Exception e) {
+            failed.add(listener);
+        }
+
+        @Override
+        protected Object[] getListeners() {
+            return super.getListeners();
+        }
+    }
+}
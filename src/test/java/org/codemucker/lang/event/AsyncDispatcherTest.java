@@ -0,0 +1,256 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class AsyncDispatcherTest {
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(4);
+
+    @After
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void ensure_each_listener_receives_events_in_order() throws Exception {
+        final AsyncDispatcher dispatcher = new AsyncDispatcher(pool, 2);
+        final TestRegistry registry = new TestRegistry();
+        final List<RecordingListener> listeners = new ArrayList<RecordingListener>();
+        for (int i = 0; i < 10; i++) {
+            final RecordingListener listener = new RecordingListener();
+            listeners.add(listener);
+            registry.add(listener);
+        }
+        DispatchFuture last = null;
+        for (int i = 0; i < 1000; i++) {
+            last = registry.fireAsync(dispatcher, RECORD, i);
+        }
+        last.get(10, TimeUnit.SECONDS);
+        for (final RecordingListener listener : listeners) {
+            assertEquals(1000, listener.received.size());
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(Integer.valueOf(i), listener.received.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void ensure_slow_listener_does_not_block_publisher_or_other_lanes() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final RecordingListener slow = new RecordingListener(release);
+        final AsyncDispatcher dispatcher = new AsyncDispatcher(pool, 16);
+        RecordingListener fast = new RecordingListener();
+        while (dispatcher.laneIndex(fast) == dispatcher.laneIndex(slow)) {
+            fast = new RecordingListener();
+        }
+        final TestRegistry slowRegistry = new TestRegistry();
+        slowRegistry.add(slow);
+        final TestRegistry fastRegistry = new TestRegistry();
+        fastRegistry.add(fast);
+
+        final DispatchFuture slowDone = slowRegistry.fireAsync(dispatcher, RECORD, 1);
+        fastRegistry.fireAsync(dispatcher, RECORD, 2).get(10, TimeUnit.SECONDS);
+        assertEquals(Collections.singletonList(2), fast.received);
+        assertFalse(slowDone.isDone());
+
+        release.countDown();
+        slowDone.get(10, TimeUnit.SECONDS);
+        assertEquals(Collections.singletonList(1), slow.received);
+    }
+
+    @Test
+    public void ensure_errors_passed_to_registry() throws Exception {
+        final TestRegistry registry = new TestRegistry();
+        final RecordingListener ok = new RecordingListener();
+        registry.add(new RecordingListener(null) {
+            @Override
+            void onEvent(final Integer event) {
+                throw new IllegalStateException("expected");
+            }
+        });
+        registry.add(ok);
+        final DispatchFuture future = registry.fireAsync(new AsyncDispatcher(pool), RECORD, 5);
+        future.get(10, TimeUnit.SECONDS);
+        assertEquals(1, future.getFailedCount());
+        assertEquals(1, registry.failed.size());
+        assertEquals(Collections.singletonList(5), ok.received);
+    }
+
+    @Test
+    public void ensure_listener_error_does_not_stall_lane() throws Exception {
+        final List<Throwable> uncaught = Collections.synchronizedList(new ArrayList<Throwable>());
+        final ExecutorService reporting = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r);
+                t.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+                    @Override
+                    public void uncaughtException(final Thread t, final Throwable e) {
+                        uncaught.add(e);
+                    }
+                });
+                return t;
+            }
+        });
+        try {
+            final TestRegistry registry = new TestRegistry();
+            final RecordingListener listener = new RecordingListener(null) {
+                @Override
+                void onEvent(final Integer event) {
+                    if (event == 1) {
+                        throw new AssertionError("expected");
+                    }
+                    super.onEvent(event);
+                }
+            };
+            registry.add(listener);
+            final AsyncDispatcher dispatcher = new AsyncDispatcher(reporting, 1);
+            final DispatchFuture failed = registry.fireAsync(dispatcher, RECORD, 1);
+            registry.fireAsync(dispatcher, RECORD, 2).get(10, TimeUnit.SECONDS);
+            assertEquals(1, failed.getFailedCount());
+            assertEquals(Collections.singletonList(2), listener.received);
+            assertEquals(1, uncaught.size());
+            assertTrue(uncaught.get(0) instanceof AssertionError);
+        } finally {
+            reporting.shutdownNow();
+        }
+    }
+
+    @Test
+    public void ensure_rejected_lanes_stay_queued() throws Exception {
+        final AtomicBoolean rejecting = new AtomicBoolean(true);
+        final AsyncDispatcher dispatcher = new AsyncDispatcher(new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                if (rejecting.get()) {
+                    throw new RejectedExecutionException("expected");
+                }
+                command.run();
+            }
+        }, 16);
+        final TestRegistry registry = new TestRegistry();
+        final List<RecordingListener> listeners = new ArrayList<RecordingListener>();
+        for (int i = 0; i < 10; i++) {
+            final RecordingListener listener = new RecordingListener();
+            listeners.add(listener);
+            registry.add(listener);
+        }
+        try {
+            registry.fireAsync(dispatcher, RECORD, 1);
+            fail("expected rejection");
+        } catch (final RejectedExecutionException e) {
+            //expected
+        }
+        rejecting.set(false);
+        final DispatchFuture future = registry.fireAsync(dispatcher, RECORD, 2);
+        future.get(10, TimeUnit.SECONDS);
+        for (final RecordingListener listener : listeners) {
+            //queued despite the rejection, and delivered once the lane ran
+            assertEquals(Arrays.asList(1, 2), listener.received);
+        }
+    }
+
+    @Test
+    public void ensure_no_listeners_completes_straight_away() {
+        assertTrue(new TestRegistry().fireAsync(new AsyncDispatcher(pool), RECORD, 1).isDone());
+    }
+
+    @Test
+    public void ensure_virtual_threads_deliver_when_supported() throws Exception {
+        if (!AsyncDispatcher.isVirtualThreadsSupported()) {
+            return;
+        }
+        final TestRegistry registry = new TestRegistry();
+        final RecordingListener listener = new RecordingListener();
+        registry.add(listener);
+        final AsyncDispatcher dispatcher = AsyncDispatcher.virtualThreads();
+        registry.fireAsync(dispatcher, RECORD, 1);
+        registry.fireAsync(dispatcher, RECORD, 2).get(10, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList(1, 2), listener.received);
+    }
+
+    private static final ListenerCallback<RecordingListener, Integer> RECORD = new ListenerCallback<RecordingListener, Integer>() {
+        @Override
+        public void call(final RecordingListener listener, final Integer event) {
+            listener.onEvent(event);
+        }
+    };
+
+    private static class RecordingListener {
+        //only ever called by one thread at a time
+        final List<Integer> received = Collections.synchronizedList(new ArrayList<Integer>());
+        private final CountDownLatch wait;
+
+        RecordingListener() {
+            this(null);
+        }
+
+        RecordingListener(final CountDownLatch wait) {
+            this.wait = wait;
+        }
+
+        void onEvent(final Integer event) {
+            if (wait != null) {
+                try {
+                    wait.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            received.add(event);
+        }
+    }
+
+    private static class TestRegistry extends CopyOnWriteListenerRegistry<RecordingListener> {
+        final List<Object> failed = Collections.synchronizedList(new ArrayList<Object>());
+
+        @Override
+        protected RecordingListener[] newArray(final int length) {
+            return new RecordingListener[length];
+        }
+
+        @Override
+        protected void onListenerError(final RecordingListener listener, final Exception e) {
+            failed.add(listener);
+        }
+
+        @Override
+        protected <E> DispatchFuture fireAsync(final AsyncDispatcher dispatcher, final ListenerCallback<? super RecordingListener, ? super E> callback, final E event) {
+            return super.fireAsync(dispatcher, callback, event);
+        }
+    }
+}
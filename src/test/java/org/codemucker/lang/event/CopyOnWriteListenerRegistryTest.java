@@ -0,0 +1,193 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.event;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class CopyOnWriteListenerRegistryTest {
+
+    @Test
+    public void ensure_listeners_added_once_in_order(){
+        final Object a = new Object(), b = new Object(), c = new Object();
+        final TestRegistry registry = new TestRegistry();
+        registry.add(a);
+        registry.add(b);
+        registry.add(a);
+        registry.addAll(new Object[] { c, b, null, c });
+        assertArrayEquals(new Object[] { a, b, c }, registry.getListeners());
+
+        registry.remove(b);
+        registry.remove(new Object());
+        assertArrayEquals(new Object[] { a, c }, registry.getListeners());
+        registry.add(b);
+        assertArrayEquals(new Object[] { a, c, b }, registry.getListeners());
+        registry.removeAll(Arrays.asList(a, b, a));
+        assertArrayEquals(new Object[] { c }, registry.getListeners());
+        registry.removeAll();
+        assertArrayEquals(new Object[0], registry.getListeners());
+    }
+
+    @Test
+    public void ensure_matches_list_with_many_listeners(){
+        final Random random = new Random(3);
+        final Object[] pool = new Object[5000];
+        for (int i = 0; i < pool.length; i++) {
+            pool[i] = new Object();
+        }
+        final TestRegistry registry = new TestRegistry();
+        final List<Object> expect = new ArrayList<Object>();
+        for (int i = 0; i < 50000; i++) {
+            final Object listener = pool[random.nextInt(pool.length)];
+            final int op = random.nextInt(10);
+            if (op < 5) {
+                registry.add(listener);
+                if (!containsIdentity(expect, listener)) {
+                    expect.add(listener);
+                }
+            } else if (op < 9) {
+                registry.remove(listener);
+                removeIdentity(expect, listener);
+            } else {
+                final Object other = pool[random.nextInt(pool.length)];
+                registry.removeAll(new Object[] { listener, other });
+                removeIdentity(expect, listener);
+                removeIdentity(expect, other);
+            }
+        }
+        assertArrayEquals(expect.toArray(), registry.getListeners());
+    }
+
+    @Test
+    public void ensure_concurrent_changes_not_lost() throws InterruptedException {
+        final TestRegistry registry = new TestRegistry();
+        final int numThreads = 4;
+        final int perThread = 2000;
+        final Object[][] added = new Object[numThreads][perThread];
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; t++) {
+            final Object[] mine = added[t];
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (final InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perThread; i++) {
+                        mine[i] = new Object();
+                        registry.add(mine[i]);
+                        //churn, removing every other one straight away
+                        if (i % 2 == 0) {
+                            registry.remove(mine[i]);
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        final Object[] listeners = registry.getListeners();
+        assertEquals(numThreads * perThread / 2, listeners.length);
+        final Set<Object> distinct = new HashSet<Object>(Arrays.asList(listeners));
+        assertEquals(listeners.length, distinct.size());
+        for (final Object[] mine : added) {
+            for (int i = 1; i < perThread; i += 2) {
+                assertEquals(true, distinct.contains(mine[i]));
+            }
+        }
+    }
+
+    @Test
+    public void ensure_fire_calls_all_listeners_despite_errors(){
+        final StringBuilder calls = new StringBuilder();
+        final TestRegistry registry = new TestRegistry();
+        registry.fire(APPEND, calls);
+        assertEquals("", calls.toString());
+
+        registry.add("a");
+        registry.fire(APPEND, calls);
+        assertEquals("a", calls.toString());
+
+        registry.addAll(new Object[] { "fail", "b" });
+        calls.setLength(0);
+        registry.fire(APPEND, calls);
+        assertEquals("ab", calls.toString());
+        assertEquals(Arrays.asList("fail"), registry.failed);
+    }
+
+    private static final ListenerCallback<Object, StringBuilder> APPEND = new ListenerCallback<Object, StringBuilder>() {
+        @Override
+        public void call(final Object listener, final StringBuilder calls) throws Exception {
+            if ("fail".equals(listener)) {
+                throw new Exception("expected");
+            }
+            calls.append(listener);
+        }
+    };
+
+    private static boolean containsIdentity(final List<Object> list, final Object o) {
+        for (final Object item : list) {
+            if (item == o) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void removeIdentity(final List<Object> list, final Object o) {
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i) == o) {
+                list.remove(i);
+                return;
+            }
+        }
+    }
+
+    private static class TestRegistry extends CopyOnWriteListenerRegistry<Object> {
+        final List<Object> failed = new ArrayList<Object>();
+
+        @Override
+        protected Object[] newArray(final int length) {
+            return new Object[length];
+        }
+
+        @Override
+        protected void onListenerError(final Object listener, final Exception e) {
+            failed.add(listener);
+        }
+
+        @Override
+        protected Object[] getListeners() {
+            return super.getListeners();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class EventBatcherTest {
+
+    @Test
+    public void ensure_delivered_when_max_events_reached(){
+        final Collector collector = new Collector();
+        final EventBatcher<String> batcher = EventBatcher.<String> builder().listener(collector).maxEvents(3).build();
+        batcher.add("a");
+        batcher.add("b");
+        assertEquals(0, collector.batches.size());
+        assertEquals(2, batcher.getPendingCount());
+        batcher.add("c");
+        batcher.add("d");
+        assertEquals(Arrays.asList(Arrays.asList("a", "b", "c")), collector.batches);
+
+        batcher.flush();
+        batcher.flush();
+        assertEquals(Arrays.asList(Arrays.asList("a", "b", "c"), Arrays.asList("d")), collector.batches);
+    }
+
+    @Test
+    public void ensure_superseded_events_dropped(){
+        final Collector collector = new Collector();
+        final EventBatcher<String> batcher = EventBatcher.<String> builder()
+            .listener(collector)
+            .maxEvents(6)
+            .coalesceBy(new EventBatcher.CoalescingKey<String>() {
+                @Override
+                public Object keyFor(final String event) {
+                    //key on the first char, the rest is the state
+                    return event.startsWith("-") ? null : event.charAt(0);
+                }
+            })
+            .build();
+        batcher.add("a1");
+        batcher.add("b1");
+        batcher.add("-");
+        batcher.add("a2");
+        batcher.add("-");
+        assertEquals(4, batcher.getPendingCount());
+        batcher.add("a3");
+        assertEquals(Arrays.asList(Arrays.asList("a3", "b1", "-", "-")), collector.batches);
+    }
+
+    @Test
+    public void ensure_delivered_after_max_delay() throws Exception {
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            final Collector collector = new Collector();
+            final EventBatcher<String> batcher = EventBatcher.<String> builder()
+                .listener(collector)
+                .maxDelay(20, TimeUnit.MILLISECONDS, scheduler)
+                .build();
+            batcher.add("a");
+            batcher.add("b");
+            final long giveUp = System.currentTimeMillis() + 10000;
+            while (collector.batches.isEmpty() && System.currentTimeMillis() < giveUp) {
+                Thread.sleep(5);
+            }
+            assertEquals(Arrays.asList(Arrays.asList("a", "b")), collector.batches);
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void ensure_listener_errors_passed_to_handler(){
+        final List<List<String>> failed = new ArrayList<List<String>>();
+        final List<Exception> errors = new ArrayList<Exception>();
+        final Collector collector = new Collector();
+        final EventBatcher<String> batcher = EventBatcher.<String> builder()
+            .listener(new BatchListener<String>() {
+                @Override
+                public void onBatch(final List<String> events) {
+                    if (events.contains("bad")) {
+                        throw new IllegalStateException("expected");
+                    }
+                    collector.onBatch(events);
+                }
+            })
+            .onError(new EventBatcher.ErrorHandler<String>() {
+                @Override
+                public void onBatchError(final List<? extends String> events, final Exception e) {
+                    failed.add(new ArrayList<String>(events));
+                    errors.add(e);
+                }
+            })
+            .maxEvents(2)
+            .build();
+        batcher.add("a");
+        //doesn't throw to the adding thread
+        batcher.add("bad");
+        batcher.add("c");
+        batcher.add("d");
+        assertEquals(Arrays.asList(Arrays.asList("a", "bad")), failed);
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0) instanceof IllegalStateException);
+        //failed batch is dropped, batching carries on
+        assertEquals(Arrays.asList(Arrays.asList("c", "d")), collector.batches);
+        assertEquals(0, batcher.getPendingCount());
+    }
+
+    private static class Collector implements BatchListener<String> {
+        final List<List<String>> batches = Collections.synchronizedList(new ArrayList<List<String>>());
+
+        @Override
+        public void onBatch(final List<String> events) {
+            batches.add(new ArrayList<String>(events));
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class RingBufferDispatcherTest {
+
+    private final ExecutorService pool = Executors.newCachedThreadPool();
+
+    @After
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void ensure_all_events_delivered_in_order_per_producer() throws Exception {
+        for (final WaitStrategy wait : WaitStrategy.values()) {
+            final TestDispatcher dispatcher = new TestDispatcher(64, wait);
+            final SummingListener listener = new SummingListener(4);
+            dispatcher.add(listener);
+            dispatcher.start(pool);
+
+            final int numProducers = 4;
+            final int perProducer = 5000;
+            final CountDownLatch done = new CountDownLatch(numProducers);
+            for (int p = 0; p < numProducers; p++) {
+                final int producer = p;
+                pool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        final long[] data = new long[2];
+                        for (int i = 1; i <= perProducer; i++) {
+                            data[0] = producer;
+                            data[1] = i;
+                            dispatcher.publish(WRITE, data);
+                        }
+                        done.countDown();
+                    }
+                });
+            }
+            assertTrue(done.await(30, TimeUnit.SECONDS));
+            dispatcher.stop();
+            assertTrue(dispatcher.awaitStopped(30, TimeUnit.SECONDS));
+
+            assertEquals(wait.name(), numProducers * perProducer, listener.count);
+            assertEquals(wait.name(), false, listener.outOfOrder);
+            assertEquals(0, dispatcher.getBacklog());
+        }
+    }
+
+    @Test
+    public void ensure_try_publish_fails_when_full() throws Exception {
+        final TestDispatcher dispatcher = new TestDispatcher(4, WaitStrategy.PARK);
+        final SummingListener listener = new SummingListener(1);
+        dispatcher.add(listener);
+        final long[] data = new long[2];
+        for (int i = 1; i <= 4; i++) {
+            data[1] = i;
+            assertTrue(dispatcher.tryPublish(WRITE, data));
+        }
+        assertFalse(dispatcher.tryPublish(WRITE, data));
+        assertEquals(4, dispatcher.getBacklog());
+
+        dispatcher.start(pool);
+        final long giveUp = System.currentTimeMillis() + 10000;
+        while (dispatcher.getBacklog() > 0 && System.currentTimeMillis() < giveUp) {
+            Thread.sleep(1);
+        }
+        data[1] = 5;
+        assertTrue(dispatcher.tryPublish(WRITE, data));
+        dispatcher.stop();
+        assertTrue(dispatcher.awaitStopped(10, TimeUnit.SECONDS));
+        assertEquals(5, listener.count);
+        assertEquals(false, listener.outOfOrder);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void ensure_publish_after_stop_fails() throws Exception {
+        final TestDispatcher dispatcher = new TestDispatcher(4, WaitStrategy.YIELD);
+        dispatcher.start(pool);
+        dispatcher.stop();
+        dispatcher.publish(WRITE, new long[2]);
+    }
+
+    @Test
+    public void ensure_publish_racing_stop_delivered_or_fails() throws Exception {
+        for (int run = 0; run < 20; run++) {
+            final TestDispatcher dispatcher = new TestDispatcher(8, WaitStrategy.YIELD);
+            final SummingListener listener = new SummingListener(4);
+            dispatcher.add(listener);
+            dispatcher.start(pool);
+            final AtomicLong accepted = new AtomicLong();
+            final CountDownLatch done = new CountDownLatch(4);
+            for (int p = 0; p < 4; p++) {
+                final int producer = p;
+                pool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        final long[] data = new long[] { producer, 0 };
+                        try {
+                            while (true) {
+                                data[1]++;
+                                dispatcher.publish(WRITE, data);
+                                accepted.incrementAndGet();
+                            }
+                        } catch (final IllegalStateException e) {
+                            //stopped
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                });
+            }
+            while (accepted.get() < 100) {
+                Thread.yield();
+            }
+            dispatcher.stop();
+            assertTrue(done.await(30, TimeUnit.SECONDS));
+            assertTrue(dispatcher.awaitStopped(30, TimeUnit.SECONDS));
+            //every publish which returned was delivered
+            assertEquals(accepted.get(), listener.count);
+            assertEquals(0, dispatcher.getBacklog());
+        }
+    }
+
+    @Test
+    public void ensure_listener_error_does_not_stop_consumer() throws Exception {
+        final List<Throwable> uncaught = Collections.synchronizedList(new ArrayList<Throwable>());
+        final ExecutorService reporting = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r);
+                t.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+                    @Override
+                    public void uncaughtException(final Thread t, final Throwable e) {
+                        uncaught.add(e);
+                    }
+                });
+                return t;
+            }
+        });
+        try {
+            final TestDispatcher dispatcher = new TestDispatcher(4, WaitStrategy.YIELD);
+            final SummingListener listener = new SummingListener(1) {
+                @Override
+                void onEvent(final int producer, final long seq) {
+                    if (seq == 2) {
+                        throw new AssertionError("expected");
+                    }
+                    super.onEvent(producer, seq);
+                }
+            };
+            dispatcher.add(listener);
+            dispatcher.start(reporting);
+            final long[] data = new long[2];
+            for (int i = 1; i <= 3; i++) {
+                data[1] = i;
+                dispatcher.publish(WRITE, data);
+            }
+            dispatcher.stop();
+            assertTrue(dispatcher.awaitStopped(10, TimeUnit.SECONDS));
+            assertEquals(2, listener.count);
+            assertEquals(1, uncaught.size());
+            assertTrue(uncaught.get(0) instanceof AssertionError);
+        } finally {
+            reporting.shutdownNow();
+        }
+    }
+
+    private static final RingBufferDispatcher.EventWriter<long[], long[]> WRITE = new RingBufferDispatcher.EventWriter<long[], long[]>() {
+        @Override
+        public void write(final long[] event, final long[] data) {
+            event[0] = data[0];
+            event[1] = data[1];
+        }
+    };
+
+    private static final ListenerCallback<SummingListener, long[]> ON_EVENT = new ListenerCallback<SummingListener, long[]>() {
+        @Override
+        public void call(final SummingListener listener, final long[] event) {
+            listener.onEvent((int) event[0], event[1]);
+        }
+    };
+
+    /**
+     * Only called from the consumer thread, results read after it's stopped
+     */
+    private static class SummingListener {
+        private final long[] lastSeen;
+        int count;
+        boolean outOfOrder;
+
+        SummingListener(final int numProducers) {
+            lastSeen = new long[numProducers];
+        }
+
+        void onEvent(final int producer, final long seq) {
+            if (seq != lastSeen[producer] + 1) {
+                outOfOrder = true;
+            }
+            lastSeen[producer] = seq;
+            count++;
+        }
+    }
+
+    private static class TestDispatcher extends RingBufferDispatcher<SummingListener, long[]> {
+        TestDispatcher(final int size, final WaitStrategy wait) {
+            super(size, new EventFactory<long[]>() {
+                @Override
+                public long[] newEvent() {
+                    return new long[2];
+                }
+            }, ON_EVENT, wait, wait);
+        }
+
+        @Override
+        protected SummingListener[] newArray(final int length) {
+            return new SummingListener[length];
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class AsyncRenderTest {
+
+    @Test
+    public void ensure_variables_resolved_concurrently() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            //only passes if all three lookups are in flight at once
+            final CyclicBarrier barrier = new CyclicBarrier(3);
+            final AtomicInteger lookups = new AtomicInteger();
+            final VariableResolver slow = new VariableResolver() {
+                @Override
+                public Object resolve(final String name) {
+                    lookups.incrementAndGet();
+                    try {
+                        barrier.await(5, TimeUnit.SECONDS);
+                    } catch (final Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                    return name.equals("missing") ? ABSENT : name.toUpperCase();
+                }
+            };
+            final RenderFuture future = Interpolator.interpolateAsync("${a} and ${b} and ${a} ${missing}", Resolvers.async(slow, executor));
+            assertEquals("A and B and A ${missing}", future.get(5, TimeUnit.SECONDS));
+            assertEquals(3, lookups.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void ensure_listeners_run_on_completion() throws Exception {
+        final Template template = Interpolator.compile("hello ${name}");
+        final AsyncVariableResolver.Callback[] callback = new AsyncVariableResolver.Callback[1];
+        final RenderFuture future = template.renderAsync(new AsyncVariableResolver() {
+            @Override
+            public void resolveAll(final Set<String> names, final Callback cb) {
+                callback[0] = cb;
+            }
+        });
+        final CountDownLatch listened = new CountDownLatch(1);
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                listened.countDown();
+            }
+        }, new SameThreadExecutor());
+        assertEquals(1, listened.getCount());
+
+        callback[0].onResolved("name", "bob");
+        callback[0].onResolved("name", "ignored");
+        assertTrue(future.isDone());
+        assertEquals(0, listened.getCount());
+        assertEquals("hello bob", future.get());
+    }
+
+    @Test
+    public void ensure_failure_fails_render() throws Exception {
+        final RuntimeException error = new RuntimeException("backend down");
+        final RenderFuture future = Interpolator.interpolateAsync("${a}${b}", new AsyncVariableResolver() {
+            @Override
+            public void resolveAll(final Set<String> names, final Callback callback) {
+                callback.onResolved("a", "x");
+                callback.onFailed("b", error);
+            }
+        });
+        try {
+            future.get();
+            fail("expected failure");
+        } catch (final ExecutionException e) {
+            assertSame(error, e.getCause());
+        }
+    }
+
+    @Test
+    public void ensure_resolver_error_fails_render() throws Exception {
+        final AssertionError error = new AssertionError("broken resolver");
+        final RenderFuture future = Interpolator.interpolateAsync("${a}", Resolvers.async(new VariableResolver() {
+            @Override
+            public Object resolve(final String name) {
+                throw error;
+            }
+        }, new SameThreadExecutor()));
+        assertTrue(future.isDone());
+        try {
+            future.get();
+            fail("expected failure");
+        } catch (final ExecutionException e) {
+            assertSame(error, e.getCause());
+        }
+    }
+
+    @Test
+    public void ensure_value_error_fails_render() throws Exception {
+        final AssertionError error = new AssertionError("broken value");
+        final Object value = new Object() {
+            @Override
+            public String toString() {
+                throw error;
+            }
+        };
+        final AsyncVariableResolver.Callback[] callback = new AsyncVariableResolver.Callback[1];
+        final RenderFuture future = Interpolator.interpolateAsync("${a}", new AsyncVariableResolver() {
+            @Override
+            public void resolveAll(final Set<String> names, final Callback cb) {
+                callback[0] = cb;
+            }
+        });
+        try {
+            callback[0].onResolved("a", value);
+            fail("expected error");
+        } catch (final AssertionError e) {
+            assertSame(error, e);
+        }
+        assertTrue(future.isDone());
+        try {
+            future.get(2, TimeUnit.SECONDS);
+            fail("expected failure");
+        } catch (final ExecutionException e) {
+            assertSame(error, e.getCause());
+        }
+    }
+
+    @Test
+    public void ensure_rejected_listener_does_not_stop_others() throws Exception {
+        final AsyncVariableResolver.Callback[] callback = new AsyncVariableResolver.Callback[1];
+        final RenderFuture future = Interpolator.interpolateAsync("${a}", new AsyncVariableResolver() {
+            @Override
+            public void resolveAll(final Set<String> names, final Callback cb) {
+                callback[0] = cb;
+            }
+        });
+        final AtomicInteger run = new AtomicInteger();
+        final Runnable listener = new Runnable() {
+            @Override
+            public void run() {
+                run.incrementAndGet();
+            }
+        };
+        future.addListener(listener, new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                throw new RejectedExecutionException("expected");
+            }
+        });
+        future.addListener(listener, new SameThreadExecutor());
+
+        final List<Throwable> uncaught = new ArrayList<Throwable>();
+        final Thread thread = Thread.currentThread();
+        final Thread.UncaughtExceptionHandler previous = thread.getUncaughtExceptionHandler();
+        thread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(final Thread t, final Throwable e) {
+                uncaught.add(e);
+            }
+        });
+        try {
+            callback[0].onResolved("a", "x");
+        } finally {
+            thread.setUncaughtExceptionHandler(previous);
+        }
+        assertEquals("x", future.get());
+        assertEquals(1, run.get());
+        assertEquals(1, uncaught.size());
+        assertTrue(uncaught.get(0) instanceof RejectedExecutionException);
+    }
+
+    @Test
+    public void ensure_no_vars_completes_immediately() throws Exception {
+        final RenderFuture future = Interpolator.interpolateAsync("no vars", Resolvers.async(Resolvers.empty(), new SameThreadExecutor()));
+        assertTrue(future.isDone());
+        assertEquals("no vars", future.get());
+    }
+
+    private static class SameThreadExecutor implements Executor {
+        @Override
+        public void execute(final Runnable command) {
+            command.run();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class BatchRendererTest {
+
+    @Test
+    public void ensure_results_in_input_order(){
+        final Template template = Interpolator.compile("hello ${name}, you are number ${num}");
+        final List<Map<String, Object>> varsList = new ArrayList<Map<String, Object>>();
+        for (int i = 0; i < 1000; i++) {
+            final Map<String, Object> vars = new HashMap<String, Object>();
+            vars.put("name", "user" + i);
+            vars.put("num", i);
+            varsList.add(vars);
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<String> results = Interpolator.renderAll(template, varsList, executor);
+            assertEquals(1000, results.size());
+            for (int i = 0; i < 1000; i++) {
+                assertEquals("hello user" + i + ", you are number " + i, results.get(i));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void ensure_sink_called_for_each(){
+        final Template template = Interpolator.compile("${a}");
+        final List<VariableResolver> resolvers = new ArrayList<VariableResolver>();
+        for (int i = 0; i < 100; i++) {
+            resolvers.add(Resolvers.withDefault(Resolvers.empty(), "x"));
+        }
+        final AtomicInteger count = new AtomicInteger();
+        Interpolator.renderAllWith(template, resolvers, ParallelTasks.defaultExecutor(), new RenderSink() {
+            @Override
+            public void onRendered(final int index, final CharSequence output) {
+                assertEquals("x", output.toString());
+                count.incrementAndGet();
+            }
+        });
+        assertEquals(100, count.get());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void ensure_failures_are_rethrown(){
+        final List<VariableResolver> resolvers = new ArrayList<VariableResolver>();
+        resolvers.add(new VariableResolver() {
+            @Override
+            public Object resolve(final String name) {
+                throw new IllegalStateException("bad resolver");
+            }
+        });
+        Interpolator.renderAllWith(Interpolator.compile("${a}"), resolvers);
+    }
+}
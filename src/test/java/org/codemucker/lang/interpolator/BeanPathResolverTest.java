@@ -0,0 +1,116 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class BeanPathResolverTest {
+
+    @Test
+    public void ensure_resolves_nested_getters(){
+        final Order order = new Order(new Customer("alice", true), 3);
+        final Template template = Interpolator.compile("${customer.name} ordered ${count}, vip=${customer.vip}, ${customer.undefined}");
+
+        assertEquals("alice ordered 3, vip=true, ${customer.undefined}", template.renderWith(Resolvers.fromBean(order)));
+        //and again, now the paths are cached
+        assertEquals("alice ordered 3, vip=true, ${customer.undefined}", template.renderWith(Resolvers.fromBean(order)));
+    }
+
+    @Test
+    public void ensure_resolves_through_maps(){
+        final Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("order", new Order(new Customer("bob", false), 1));
+        vars.put("a.b", "dotted key");
+        final Map<String, Object> nested = new HashMap<String, Object>();
+        nested.put("key", "nested value");
+        vars.put("map", nested);
+
+        final VariableResolver resolver = new BeanPathResolver(vars);
+        assertEquals("bob", resolver.resolve("order.customer.name"));
+        assertEquals("dotted key", resolver.resolve("a.b"));
+        assertEquals("nested value", resolver.resolve("map.key"));
+        assertSame(VariableResolver.ABSENT, resolver.resolve("map.undefined"));
+        assertSame(VariableResolver.ABSENT, resolver.resolve("undefined.name"));
+    }
+
+    @Test
+    public void ensure_null_part_resolves_to_null(){
+        final VariableResolver resolver = new BeanPathResolver(new Order(null, 0));
+        assertNull(resolver.resolve("customer.name"));
+    }
+
+    @Test
+    public void ensure_uses_runtime_type_when_declared_type_too_loose(){
+        final Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("holder", new Holder(new Customer("carol", false)));
+        assertEquals("carol", new BeanPathResolver(vars).resolve("holder.value.name"));
+    }
+
+    public static class Order {
+        private final Customer customer;
+        private final int count;
+
+        Order(final Customer customer, final int count) {
+            this.customer = customer;
+            this.count = count;
+        }
+
+        public Customer getCustomer() {
+            return customer;
+        }
+
+        public int getCount() {
+            return count;
+        }
+    }
+
+    public static class Customer {
+        private final String name;
+        private final boolean vip;
+
+        Customer(final String name, final boolean vip) {
+            this.name = name;
+            this.vip = vip;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isVip() {
+            return vip;
+        }
+    }
+
+    public static class Holder {
+        private final Object value;
+
+        Holder(final Object value) {
+            this.value = value;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ChannelInterpolatorTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Test
+    public void ensure_resolves_tokens_straddling_buffers() throws IOException {
+        final Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("food","apples");
+        vars.put("and","é中文");
+
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            sb.append("alice ü likes ${food} and ${ and }, $$${food} $ ${undefined} ").append(i);
+        }
+        final String input = sb.toString();
+        final String expect = Interpolator.interpolate(input, vars).toString();
+        //try a spread of sizes so tokens land on every possible boundary
+        for (int size = 16; size < 40; size++) {
+            assertEquals("bufferSize=" + size, expect, interpolate(new ChannelInterpolator(size), input, vars));
+        }
+    }
+
+    @Test
+    public void ensure_handles_unterminated_tokens_at_end() throws IOException {
+        final Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("food","apples");
+
+        final ChannelInterpolator interpolator = new ChannelInterpolator(16);
+        assertEquals("alice likes ${food", interpolate(interpolator, "alice likes ${food", vars));
+        assertEquals("alice likes apples$", interpolate(interpolator, "alice likes ${food}$", vars));
+        assertEquals("", interpolate(interpolator, "", vars));
+    }
+
+    @Test
+    public void ensure_outputs_tokens_longer_than_buffer_as_is() throws IOException {
+        final Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("food","apples");
+
+        final String input = "${food} ${a_very_long_name_which_is_longer_than_the_buffer} ${food}";
+        assertEquals("apples ${a_very_long_name_which_is_longer_than_the_buffer} apples", interpolate(new ChannelInterpolator(16), input, vars));
+    }
+
+    @Test
+    public void ensure_copies_input_when_no_vars() throws IOException {
+        assertEquals("alice likes ${food}", interpolate(new ChannelInterpolator(), "alice likes ${food}", null));
+    }
+
+    private static String interpolate(final ChannelInterpolator interpolator, final String input, final Map<String, ?> vars) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        interpolator.interpolate(Channels.newChannel(new ByteArrayInputStream(input.getBytes(UTF8))), Channels.newChannel(out), vars, UTF8);
+        return new String(out.toByteArray(), UTF8);
+    }
+}
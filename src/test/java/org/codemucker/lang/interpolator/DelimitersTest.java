@@ -0,0 +1,143 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class DelimitersTest {
+
+    private static final Map<String, Object> VARS = new HashMap<String, Object>();
+    static {
+        VARS.put("food","apples");
+        VARS.put("and","pears");
+        VARS.put("nothing",null);
+    }
+
+    @Test
+    public void ensure_custom_delimiters_interpolate(){
+        assertEquals("alice likes apples and pears", interpolate("alice likes #{food} and #{ and }", Delimiters.HASH));
+        assertEquals("alice likes apples and ${food}", interpolate("alice likes {{food}} and ${food}", Delimiters.DOUBLE_BRACES));
+        assertEquals("alice likes apples and pears!", interpolate("alice likes %food% and %and%%nothing%!", Delimiters.PERCENT));
+        assertEquals("alice likes apples", interpolate("alice likes <%= food %>", Delimiters.of("<%=", "%>")));
+    }
+
+    @Test
+    public void ensure_custom_delimiters_follow_default_rules(){
+        //unknown, unterminated, abandoned, and partial delimiters are output as is
+        assertEquals("{{undefined}}", interpolate("{{undefined}}", Delimiters.DOUBLE_BRACES));
+        assertEquals("x {{food", interpolate("x {{food", Delimiters.DOUBLE_BRACES));
+        assertEquals("x {{food}", interpolate("x {{food}", Delimiters.DOUBLE_BRACES));
+        assertEquals("{{a apples", interpolate("{{a {{food}}", Delimiters.DOUBLE_BRACES));
+        assertEquals("{apples", interpolate("{{{food}}", Delimiters.DOUBLE_BRACES));
+        assertEquals("$apples", interpolate("$${food}", Delimiters.DEFAULT));
+        assertEquals("{apples: 1}", interpolate("{{{food}}: 1}", Delimiters.DOUBLE_BRACES));
+        assertEquals("{{{apples", interpolate("{{{{{food}}", Delimiters.DOUBLE_BRACES));
+        assertEquals("{food} {", interpolate("{food} {", Delimiters.DOUBLE_BRACES));
+        assertEquals("apples%", interpolate("%food%%", Delimiters.PERCENT));
+        assertEquals("#", interpolate("#", Delimiters.HASH));
+    }
+
+    @Test
+    public void ensure_of_default_is_default(){
+        assertEquals(Delimiters.DEFAULT, Delimiters.of("${", "}"));
+        assertEquals(Delimiters.HASH, Delimiters.of("#{", "}"));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void ensure_empty_delimiters_rejected(){
+        Delimiters.of("", "}");
+    }
+
+    @Test
+    public void ensure_general_scan_same_as_default_scan() throws IOException {
+        final Random random = new Random(7);
+        final String[] parts = { "$", "{", "}", "food", " ", "and", "x", "${food}", "${" };
+        for (int i = 0; i < 2000; i++) {
+            final StringBuilder input = new StringBuilder();
+            final int numParts = random.nextInt(12);
+            for (int j = 0; j < numParts; j++) {
+                input.append(parts[random.nextInt(parts.length)]);
+            }
+            final StringBuilder general = new StringBuilder();
+            TemplateScanner.scanDelimited(input, 0, input.length(), true, Delimiters.DEFAULT, new Interpolator.AppendingHandler(general, Resolvers.fromMap(VARS)));
+            assertEquals(input.toString(), Interpolator.interpolate(input, VARS).toString(), general.toString());
+        }
+    }
+
+    @Test
+    public void ensure_streamed_same_as_string() throws IOException {
+        final Charset utf8 = Charset.forName("UTF-8");
+        final Delimiters[] delimiters = { Delimiters.DEFAULT, Delimiters.DOUBLE_BRACES, Delimiters.PERCENT, Delimiters.of("<%=", "%>") };
+        for (final Delimiters delims : delimiters) {
+            final StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 2000; i++) {
+                sb.append("alice likes ").append(token("food", delims)).append(" and ").append(token(" and ", delims));
+                if (delims != Delimiters.PERCENT) {
+                    //a stray start would pair up with the next token's start, making tokens longer than the buffer
+                    sb.append(delims.getStart()).append(" ");
+                }
+                sb.append(token("undefined", delims)).append(i);
+            }
+            final String input = sb.toString();
+            final String expect = interpolate(input, delims);
+
+            final StringWriter sw = new StringWriter();
+            Interpolator.interpolate(new StringReader(input), sw, VARS, delims);
+            assertEquals(delims.toString(), expect, sw.toString());
+
+            for (int size = 16; size < 24; size++) {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                new ChannelInterpolator(size, delims).interpolate(Channels.newChannel(new ByteArrayInputStream(input.getBytes(utf8))), Channels.newChannel(out), VARS, utf8);
+                assertEquals(delims + " bufferSize=" + size, expect, new String(out.toByteArray(), utf8));
+            }
+        }
+    }
+
+    @Test
+    public void ensure_reader_handles_tokens_longer_than_its_buffer() throws IOException {
+        final StringBuilder name = new StringBuilder("food");
+        while (name.length() < 20000) {
+            name.append(' ');
+        }
+        final String input = "alice likes {{" + name + "}}!";
+        final StringWriter sw = new StringWriter();
+        Interpolator.interpolate(new StringReader(input), sw, VARS, Delimiters.DOUBLE_BRACES);
+        assertEquals("alice likes apples!", sw.toString());
+    }
+
+    private static String token(final String name, final Delimiters delimiters) {
+        return delimiters.getStart() + name + delimiters.getEnd();
+    }
+
+    private static String interpolate(final String input, final Delimiters delimiters) {
+        final String result = Interpolator.interpolate(input, VARS, delimiters).toString();
+        assertEquals(result, Interpolator.compile(input, delimiters).render(VARS));
+        return result;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class EscapersTest {
+
+    @Test
+    public void ensure_html_escaped(){
+        assertEquals("plain text", Escapers.escape(Escapers.HTML, "plain text"));
+        assertEquals("&lt;a href=&quot;x&quot;&gt;Tom &amp; Jerry&#39;s&lt;/a&gt;", Escapers.escape(Escapers.HTML, "<a href=\"x\">Tom & Jerry's</a>"));
+        assertEquals("ü中&amp;", Escapers.escape(Escapers.HTML, "ü中&"));
+    }
+
+    @Test
+    public void ensure_xml_escaped(){
+        assertEquals("&lt;a b=&apos;c&apos;/&gt;\tok", Escapers.escape(Escapers.XML, "<a b='c'/>\u0001\tok\uffff"));
+        //nothing to escape, so not copied
+        final String plain = "nothing to see here";
+        assertSame(plain, Escapers.escape(Escapers.XML, plain));
+    }
+
+    @Test
+    public void ensure_json_escaped(){
+        assertEquals("say \\\"hi\\\"\\n\\\\ \\u0001 <\\/script> \\u2028", Escapers.escape(Escapers.JSON, "say \"hi\"\n\\ \u0001 </script> \u2028"));
+        assertEquals("", Escapers.escape(Escapers.JSON, ""));
+    }
+
+    @Test
+    public void ensure_template_escapes_per_template_and_per_var(){
+        final Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("name","<b>Tom & Jerry</b>");
+        vars.put("html",new StringBuilder("<i>hi</i>"));
+        vars.put("nothing",null);
+
+        final Template template = Interpolator.compile("<p>${name}${html}${nothing}${undefined<}</p>");
+        assertEquals("<p><b>Tom & Jerry</b><i>hi</i>${undefined<}</p>", template.render(vars));
+
+        final Template escaped = template.withEscaper(Escapers.HTML);
+        assertEquals("<p>&lt;b&gt;Tom &amp; Jerry&lt;/b&gt;&lt;i&gt;hi&lt;/i&gt;${undefined<}</p>", escaped.render(vars));
+
+        final Template mixed = escaped.withEscaper("html", null);
+        assertEquals("<p>&lt;b&gt;Tom &amp; Jerry&lt;/b&gt;<i>hi</i>${undefined<}</p>", mixed.render(vars));
+
+        final IncrementalRenderer incremental = new IncrementalRenderer(mixed);
+        incremental.render(vars);
+        assertEquals(mixed.render(vars), incremental.toString());
+    }
+}
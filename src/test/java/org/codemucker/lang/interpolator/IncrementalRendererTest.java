@@ -0,0 +1,78 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class IncrementalRendererTest {
+
+    @Test
+    public void ensure_reports_whether_output_changed(){
+        final Template template = Interpolator.compile("cpu ${cpu}%, mem ${mem}%, ${unknown} ${cpu}");
+        final IncrementalRenderer renderer = new IncrementalRenderer(template);
+        final Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("cpu", 5);
+        vars.put("mem", 60);
+
+        assertTrue(renderer.render(vars));
+        assertEquals(template.render(vars), renderer.toString());
+
+        assertFalse(renderer.render(vars));
+        assertEquals(template.render(vars), renderer.toString());
+
+        vars.put("cpu", 100);
+        assertTrue(renderer.render(vars));
+        assertEquals(template.render(vars), renderer.toString());
+
+        vars.put("mem", null);
+        assertTrue(renderer.render(vars));
+        assertEquals(template.render(vars), renderer.toString());
+    }
+
+    @Test
+    public void ensure_splices_same_as_full_render(){
+        final Template template = Interpolator.compile("${a}-${b}${c} x ${a} ${d}${missing}!");
+        final IncrementalRenderer renderer = new IncrementalRenderer(template);
+        final String[] names = { "a", "b", "c", "d" };
+        final Random random = new Random(42);
+        final Map<String, Object> vars = new HashMap<String, Object>();
+        for (int i = 0; i < 500; i++) {
+            final String name = names[random.nextInt(names.length)];
+            final int len = random.nextInt(8);
+            final StringBuilder value = new StringBuilder();
+            for (int j = 0; j < len; j++) {
+                value.append((char) ('a' + random.nextInt(3)));
+            }
+            final String previous = renderer.toString();
+            vars.put(name, random.nextInt(10) == 0 ? null : value.toString());
+
+            final boolean changed = renderer.render(vars);
+            final String expect = template.render(vars);
+            assertEquals(expect, renderer.getOutput().toString());
+            if (!previous.equals(expect)) {
+                assertTrue(changed);
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class InterpolatorMetricsTest {
+
+    @After
+    public void disable() {
+        InterpolatorMetrics.setListener(null);
+    }
+
+    @Test
+    public void ensure_listener_notified_of_renders() {
+        final InterpolatorStats stats = new InterpolatorStats();
+        InterpolatorMetrics.setListener(stats);
+
+        final Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("food","apples");
+        vars.put("nothing",null);
+
+        final Template template = Interpolator.compile("alice likes ${food}${nothing} and ${pears}");
+        assertEquals("alice likes apples and ${pears}", template.render(vars));
+        assertEquals("bob likes apples", Interpolator.interpolate("bob likes ${food}", vars).toString());
+
+        assertEquals(2, stats.getRenderCount());
+        assertEquals(3, stats.getResolvedCount());
+        assertEquals(1, stats.getUnresolvedCount());
+        assertEquals(template.getSource().length() + "bob likes ${food}".length(), stats.getSizeIn());
+        assertEquals("alice likes apples and ${pears}".length() + "bob likes apples".length(), stats.getSizeOut());
+        assertEquals(Long.valueOf(1), stats.getUnresolvedByTemplate().get(template.getSource()));
+
+        long total = 0;
+        for (final long count : stats.getLatencyHistogram()) {
+            total += count;
+        }
+        assertEquals(2, total);
+
+        stats.reset();
+        assertEquals(0, stats.getRenderCount());
+        assertTrue(stats.getUnresolvedByTemplate().isEmpty());
+    }
+
+    @Test
+    public void ensure_latency_buckets_are_powers_of_two_micros() {
+        assertEquals(0, InterpolatorStats.bucketFor(999));
+        assertEquals(1, InterpolatorStats.bucketFor(1000));
+        assertEquals(2, InterpolatorStats.bucketFor(2000));
+        assertEquals(2, InterpolatorStats.bucketFor(3999));
+        assertEquals(3, InterpolatorStats.bucketFor(4000));
+        assertEquals(21, InterpolatorStats.bucketFor(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void ensure_jmx_stats_registered() throws Exception {
+        final InterpolatorStats stats = InterpolatorMetrics.enableJmx();
+        Interpolator.interpolate("${a}", new HashMap<String, Object>()).toString();
+        Interpolator.interpolateUtf8With("${a}".getBytes("UTF-8"), Resolvers.empty());
+
+        final Object count = ManagementFactory.getPlatformMBeanServer().getAttribute(new ObjectName(InterpolatorMetrics.JMX_NAME), "UnresolvedCount");
+        assertEquals(Long.valueOf(1), count);
+        assertEquals(1, stats.getRenderCount());
+        assertEquals(Long.valueOf(1), stats.getUnresolvedByTemplate().get("${a}"));
+    }
+
+    @Test
+    public void ensure_all_in_memory_engines_report_their_template() throws Exception {
+        final InterpolatorStats stats = new InterpolatorStats();
+        InterpolatorMetrics.setListener(stats);
+        final Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("food","apples");
+
+        final StringBuilder large = new StringBuilder();
+        while (large.length() < ParallelInterpolator.DEFAULT_MIN_CHUNK_SIZE * 3) {
+            large.append("alice likes ${food} and ${pears}\n");
+        }
+        final int numTokens = large.length() / "alice likes ${food} and ${pears}\n".length();
+        Interpolator.interpolateParallel(large, vars);
+        assertEquals(1, stats.getRenderCount());
+        assertEquals(numTokens, stats.getResolvedCount());
+        assertEquals(numTokens, stats.getUnresolvedCount());
+
+        stats.reset();
+        final Template template = Interpolator.compile("bob likes ${food} and ${pears}");
+        final IncrementalRenderer renderer = new IncrementalRenderer(template);
+        renderer.render(vars);
+        renderer.render(vars);
+        assertEquals(2, stats.getRenderCount());
+        assertEquals(Long.valueOf(2), stats.getUnresolvedByTemplate().get(template.getSource()));
+        assertEquals(2 * renderer.getOutput().length(), stats.getSizeOut());
+
+        stats.reset();
+        final Map<String, Object> chain = new HashMap<String, Object>();
+        chain.put("a","${b}!");
+        chain.put("b","${c}");
+        chain.put("c","cee");
+        assertEquals("cee! ${d}", Interpolator.interpolateRecursive("${a} ${d}", chain));
+        assertEquals(1, stats.getRenderCount());
+        assertEquals(3, stats.getResolvedCount());
+        assertEquals(1, stats.getUnresolvedCount());
+        assertEquals("${a} ${d}".length(), stats.getSizeIn());
+        assertEquals("cee! ${d}".length(), stats.getSizeOut());
+
+        stats.reset();
+        final Template accented = Interpolator.compile("über ${food}");
+        final ByteBuffer[] buffers = accented.renderBuffers(Resolvers.fromMap(vars), Charset.forName("UTF-8"));
+        assertEquals(1, stats.getRenderCount());
+        assertEquals(accented.getSource().getBytes("UTF-8").length, stats.getSizeIn());
+        assertEquals(buffers[0].remaining() + buffers[1].remaining(), stats.getSizeOut());
+
+        stats.reset();
+        Interpolator.interpolateUtf8(" ${pears} ".getBytes("UTF-8"), vars);
+        assertEquals(Long.valueOf(1), stats.getUnresolvedByTemplate().get(" ${pears} "));
+    }
+
+    @Test
+    public void ensure_disabled_by_default() {
+        assertNull(InterpolatorMetrics.getListener());
+    }
+}
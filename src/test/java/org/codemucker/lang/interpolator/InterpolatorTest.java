@@ -18,8 +18,11 @@ package org.codemucker.lang.interpolator;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Random;
 
 import org.codemucker.lang.interpolator.Interpolator;
 import org.junit.Test;
@@ -74,5 +77,35 @@ public class InterpolatorTest {
         assertEquals("alice likes ${apples$}", interpolator.interpolate("alice likes ${${food}$}",vars));
     }
 
+    @Test
+    public void ensure_appends_to_builder(){
+        final Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("food","apples");
+
+        final StringBuilder sb = new StringBuilder("start:");
+        Interpolator.interpolate("alice likes ${food} and ${undefined}", vars, sb);
+        assertEquals("start:alice likes apples and ${undefined}", sb.toString());
+    }
 
+    @Test
+    public void ensure_string_and_reader_paths_match() throws Exception {
+        final Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("a","A");
+        vars.put("bb","<bb>");
+        vars.put("n",null);
+
+        final char[] alphabet = {'$','$','{','}','a','b','n',' ','x'};
+        final Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            final char[] chars = new char[random.nextInt(20)];
+            for (int j = 0; j < chars.length; j++) {
+                chars[j] = alphabet[random.nextInt(alphabet.length)];
+            }
+            final String input = new String(chars);
+            final StringWriter sw = new StringWriter();
+            Interpolator.interpolate(new StringReader(input), sw, vars);
+            assertEquals(input, sw.toString(), Interpolator.interpolate(input, vars).toString());
+            assertEquals(input, sw.toString(), Interpolator.compile(input).render(vars));
+        }
+    }
 }
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class MappedFileInterpolatorTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Test
+    public void ensure_resolves_tokens_straddling_windows() throws IOException {
+        final Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("food","apples");
+        vars.put("and","é中文");
+
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            sb.append("alice ü likes ${food} and ${ and }, $$${food} $ ${undefined} ").append(i);
+        }
+        final String input = sb.toString();
+        final String expect = Interpolator.interpolate(input, vars).toString();
+        final File file = writeTempFile(input, UTF8);
+        try {
+            for (int window = 16; window < 40; window++) {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                final FileInputStream in = new FileInputStream(file);
+                try {
+                    MappedFileInterpolator.interpolate(in.getChannel(), Channels.newChannel(out), Resolvers.fromMap(vars), UTF8, window);
+                } finally {
+                    in.close();
+                }
+                assertEquals("window=" + window, expect, new String(out.toByteArray(), UTF8));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void ensure_interpolates_file() throws IOException {
+        final Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("food","apples");
+
+        assertEquals("alice likes apples", interpolateFile("alice likes ${food}", vars, UTF8));
+        assertEquals("alice likes ${food", interpolateFile("alice likes ${food", vars, UTF8));
+        assertEquals("alice likes ${food}", interpolateFile("alice likes ${food}", null, UTF8));
+        assertEquals("", interpolateFile("", vars, UTF8));
+
+        final StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            large.append("literal ");
+        }
+        assertEquals(large + "apples" + large, interpolateFile(large + "${food}" + large, vars, UTF8));
+    }
+
+    @Test
+    public void ensure_falls_back_for_unsupported_charsets() throws IOException {
+        final Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("food","apples");
+
+        assertEquals("alice likes apples", interpolateFile("alice likes ${food}", vars, Charset.forName("UTF-16")));
+    }
+
+    private static String interpolateFile(final String content, final Map<String, ?> vars, final Charset charset) throws IOException {
+        final File file = writeTempFile(content, charset);
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Interpolator.interpolate(file, Channels.newChannel(out), vars, charset);
+            return new String(out.toByteArray(), charset);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static File writeTempFile(final String content, final Charset charset) throws IOException {
+        final File file = File.createTempFile("interpolator", ".txt");
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes(charset));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
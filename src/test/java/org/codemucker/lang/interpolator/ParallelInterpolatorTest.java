@@ -0,0 +1,72 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+public class ParallelInterpolatorTest {
+
+    @Test
+    public void ensure_same_as_sequential() {
+        final Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("a","A");
+        vars.put("bb","<bb>");
+        vars.put("n",null);
+        final VariableResolver resolver = Resolvers.fromMap(vars);
+
+        final char[] alphabet = {'$','$','{','}','a','b','n',' ','x'};
+        final Random random = new Random(42);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int i = 0; i < 500; i++) {
+                final char[] chars = new char[random.nextInt(200)];
+                for (int j = 0; j < chars.length; j++) {
+                    chars[j] = alphabet[random.nextInt(alphabet.length)];
+                }
+                final String input = new String(chars);
+                final String expect = Interpolator.interpolateWith(input, resolver).toString();
+                //tiny chunks so every edge case lands on a boundary
+                for (int chunkSize = 1; chunkSize < 8; chunkSize++) {
+                    assertEquals(input, expect, ParallelInterpolator.interpolate(input, resolver, executor, chunkSize).toString());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void ensure_interpolates_large_input() {
+        final Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("food","apples");
+
+        final StringBuilder sb = new StringBuilder();
+        final StringBuilder expect = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            sb.append("alice likes ${food} $$ ${undefined}\n");
+            expect.append("alice likes apples $$ ${undefined}\n");
+        }
+        assertEquals(expect.toString(), Interpolator.interpolateParallel(sb, vars).toString());
+    }
+}
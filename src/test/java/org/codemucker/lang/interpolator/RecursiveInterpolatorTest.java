@@ -0,0 +1,142 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class RecursiveInterpolatorTest {
+
+    @Test
+    public void ensure_values_interpolated(){
+        final Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("url","http://${host}:${port}/${path}");
+        vars.put("host","${env}.example.com");
+        vars.put("env","prod");
+        vars.put("port",8080);
+        vars.put("path",null);
+
+        assertEquals("go to http://prod.example.com:8080/ ${undefined}", Interpolator.interpolateRecursive("go to ${url} ${undefined}", vars));
+    }
+
+    @Test
+    public void ensure_each_value_expanded_once(){
+        final AtomicInteger lookups = new AtomicInteger();
+        final Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("a","${b}${b}");
+        vars.put("b","${c}${c}");
+        vars.put("c","x");
+        final VariableResolver counting = new VariableResolver() {
+            @Override
+            public Object resolve(final String name) {
+                lookups.incrementAndGet();
+                return vars.get(name);
+            }
+        };
+        assertEquals("xxxx xxxx", Interpolator.interpolateRecursiveWith("${a} ${a}", counting));
+        assertEquals(3, lookups.get());
+    }
+
+    @Test
+    public void ensure_cycles_detected(){
+        final Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("a","${b}");
+        vars.put("b","x${c}");
+        vars.put("c","${a}");
+        try {
+            Interpolator.interpolateRecursive("${a}", vars);
+            fail("expected cycle");
+        } catch (final IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("a -> b -> c -> a"));
+        }
+    }
+
+    @Test
+    public void ensure_limits_enforced(){
+        final Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("v0","x");
+        for (int i = 1; i < 30; i++) {
+            //doubles in length each level
+            vars.put("v" + i,"${v" + (i - 1) + "}${v" + (i - 1) + "}");
+        }
+        assertEquals(1 << 10, Interpolator.interpolateRecursive("${v10}", vars).length());
+        try {
+            RecursiveInterpolator.builder().maxDepth(5).build().interpolate("${v10}", vars);
+            fail("expected depth limit");
+        } catch (final IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("max depth"));
+        }
+        try {
+            RecursiveInterpolator.builder().maxLength(1000).build().interpolate("${v10}", vars);
+            fail("expected length limit");
+        } catch (final IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("max length"));
+        }
+        try {
+            RecursiveInterpolator.builder().maxLength(2).build().interpolate("abc", vars);
+            fail("expected output length limit");
+        } catch (final IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("max length"));
+        }
+    }
+
+    @Test
+    public void ensure_length_enforced_while_expanding(){
+        final StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            big.append('x');
+        }
+        final StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            input.append("${x}");
+        }
+        input.append("${last}");
+        final Set<String> resolved = new HashSet<String>();
+        final VariableResolver resolver = new VariableResolver() {
+            @Override
+            public Object resolve(final String name) {
+                resolved.add(name);
+                return "x".equals(name) ? big : "y";
+            }
+        };
+        try {
+            RecursiveInterpolator.builder().maxLength(50000).build().interpolateWith(input, resolver);
+            fail("expected output length limit");
+        } catch (final IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("max length"));
+        }
+        //failed part way through, not once the whole output had been built
+        assertFalse(resolved.contains("last"));
+    }
+
+    @Test
+    public void ensure_custom_delimiters(){
+        final Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("a","{{b}}!");
+        vars.put("b","bee");
+        assertEquals("bee!", RecursiveInterpolator.builder().delimiters(Delimiters.DOUBLE_BRACES).build().interpolate("{{a}}", vars));
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ResolversTest {
+
+    @Test
+    public void ensure_map_resolver_distinguishes_null_and_absent(){
+        final Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("food","apples");
+        vars.put("nothing",null);
+        final VariableResolver resolver = Resolvers.fromMap(vars);
+
+        assertEquals("apples", resolver.resolve("food"));
+        assertNull(resolver.resolve("nothing"));
+        assertSame(VariableResolver.ABSENT, resolver.resolve("undefined"));
+        assertSame(VariableResolver.ABSENT, Resolvers.fromMap(null).resolve("food"));
+    }
+
+    @Test
+    public void ensure_chain_returns_first_found(){
+        final Map<String, Object> first = new HashMap<String, Object>();
+        first.put("a","first");
+        first.put("nothing",null);
+        final Map<String, Object> second = new HashMap<String, Object>();
+        second.put("a","second");
+        second.put("b","second");
+        second.put("nothing","second");
+
+        final VariableResolver resolver = Resolvers.chain(Resolvers.fromMap(first), Resolvers.fromMap(second));
+        assertEquals("alice likes first, second, and ${c}", Interpolator.interpolateWith("alice likes ${a}, ${b}, ${nothing}and ${c}", resolver));
+    }
+
+    @Test
+    public void ensure_default_used_for_absent(){
+        final VariableResolver resolver = Resolvers.withDefault(Resolvers.empty(), "?");
+        assertEquals("alice likes ?", Interpolator.interpolateWith("alice likes ${food}", resolver));
+    }
+
+    @Test
+    public void ensure_only_resolves_vars_in_input(){
+        final List<String> looked = new ArrayList<String>();
+        final VariableResolver resolver = new VariableResolver() {
+            @Override
+            public Object resolve(final String name) {
+                looked.add(name);
+                return name.toUpperCase();
+            }
+        };
+        assertEquals("alice likes FOOD", Interpolator.compile("alice likes ${ food }").renderWith(resolver));
+        assertEquals(1, looked.size());
+        assertEquals("food", looked.get(0));
+    }
+
+    @Test
+    public void ensure_system_properties_resolved(){
+        System.setProperty("ResolversTest.prop", "value");
+        try {
+            assertEquals("value ${ResolversTest.undefined}", Interpolator.interpolateWith("${ResolversTest.prop} ${ResolversTest.undefined}", Resolvers.systemProperties()));
+        } finally {
+            System.clearProperty("ResolversTest.prop");
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class SpecializedRendererTest {
+
+    private static final Map<String, Object> VARS = new HashMap<String, Object>();
+    static {
+        VARS.put("food","apples");
+        VARS.put("and","oränges");
+        VARS.put("nothing",null);
+    }
+
+    @Test
+    public void ensure_specialized_renders_same_as_generic(){
+        final String[] inputs = {
+                "",
+                "abc",
+                "${food}",
+                "alice likes ${food} and ${and} and ${undefined}",
+                "alice likes ${ food }${nothing}!${food}${food}",
+                "ü中 ${and}\u0000 \"quoted\"",
+        };
+        for (final String input : inputs) {
+            final Template generic = Interpolator.compile(input);
+            final Template template = generic.specializeAfter(2);
+            for (int i = 0; i < 4; i++) {
+                assertEquals(input, generic.render(VARS), template.render(VARS));
+            }
+            assertEquals(input, generic.getNumVars() > 0, template.isSpecialized());
+        }
+    }
+
+    @Test
+    public void ensure_many_slots_specialized(){
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("[").append(i).append("]${food}${and}");
+        }
+        final Template generic = Interpolator.compile(sb);
+        final Template template = generic.specializeAfter(1);
+        assertEquals(generic.render(VARS), template.render(VARS));
+        assertTrue(template.isSpecialized());
+        //split into chunks small enough to be compiled
+        final String[] literals = new String[2001];
+        Arrays.fill(literals, "[0]");
+        final SpecializedRenderer renderer = RendererGenerator.generate(literals);
+        assertNotNull(renderer);
+        assertTrue(renderer.getClass().getDeclaredMethods().length > 2);
+        //escaping still applies
+        final Template escaped = generic.withEscaper(Escapers.HTML).specializeAfter(1);
+        assertEquals(generic.withEscaper(Escapers.HTML).render(VARS), escaped.render(VARS));
+    }
+
+    @Test
+    public void ensure_falls_back_when_cant_specialize(){
+        final StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < 40000; i++) {
+            literal.append('é');
+        }
+        //too long for a class file constant
+        final Template tooLong = Interpolator.compile(literal + "${food}").specializeAfter(1);
+        assertEquals(literal + "apples", tooLong.render(VARS));
+        assertEquals(literal + "apples", tooLong.render(VARS));
+        assertFalse(tooLong.isSpecialized());
+
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i <= RendererGenerator.MAX_SLOTS; i++) {
+            sb.append("${food}");
+        }
+        final Template tooManySlots = Interpolator.compile(sb).specializeAfter(1);
+        assertEquals(Interpolator.interpolate(sb, VARS).toString(), tooManySlots.render(VARS));
+        assertFalse(tooManySlots.isSpecialized());
+
+        //fewer slots, but with the literals the render method would be too long to be compiled
+        sb.setLength(0);
+        for (int i = 0; i < 30000; i++) {
+            sb.append("a${food}");
+        }
+        final Template tooLongToCompile = Interpolator.compile(sb).specializeAfter(1);
+        assertEquals(Interpolator.interpolate(sb, VARS).toString(), tooLongToCompile.render(VARS));
+        assertFalse(tooLongToCompile.isSpecialized());
+    }
+
+    @Test
+    public void ensure_resolver_can_render_same_template(){
+        final Template template = Interpolator.compile("[${a}|${b}]").specializeAfter(1);
+        template.render(VARS);
+        final VariableResolver inner = new VariableResolver() {
+            @Override
+            public Object resolve(final String name) {
+                return name;
+            }
+        };
+        final VariableResolver outer = new VariableResolver() {
+            @Override
+            public Object resolve(final String name) {
+                return template.renderWith(inner);
+            }
+        };
+        assertTrue(template.isSpecialized());
+        assertEquals("[[a|b]|[a|b]]", template.renderWith(outer));
+    }
+
+    @Test
+    public void ensure_specialized_while_measured(){
+        final InterpolatorStats stats = new InterpolatorStats();
+        InterpolatorMetrics.setListener(stats);
+        try {
+            final Template template = Interpolator.compile("alice likes ${food} and ${pears}").specializeAfter(2);
+            for (int i = 0; i < 10; i++) {
+                assertEquals("alice likes apples and ${pears}", template.render(VARS));
+            }
+            assertTrue(template.isSpecialized());
+            assertEquals(10, stats.getRenderCount());
+            assertEquals(10, stats.getResolvedCount());
+            assertEquals(10, stats.getUnresolvedCount());
+            assertEquals(10 * "alice likes apples and ${pears}".length(), stats.getSizeOut());
+        } finally {
+            InterpolatorMetrics.setListener(null);
+        }
+    }
+
+    @Test
+    public void ensure_cache_specializes_hot_templates(){
+        final TemplateCache cache = TemplateCache.builder().maxEntries(10).specializeAfter(3).build();
+        for (int i = 0; i < 3; i++) {
+            assertEquals("alice likes apples", cache.interpolate("alice likes ${food}", VARS));
+        }
+        assertTrue(cache.get("alice likes ${food}").isSpecialized());
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class TemplateCacheTest {
+
+    @Test
+    public void ensure_counts_hits_and_misses(){
+        final TemplateCache cache = TemplateCache.builder().maxEntries(10).build();
+        final Template template = cache.get("alice likes ${food}");
+
+        assertSame(template, cache.get("alice likes ${food}"));
+        assertSame(template, cache.get(new StringBuilder("alice likes ${food}")));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void ensure_evicts_least_recently_used(){
+        final TemplateCache cache = TemplateCache.builder().maxEntries(2).build();
+        final Template a = cache.get("a");
+        cache.get("b");
+        cache.get("a");
+        cache.get("c");//should evict b
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertSame(a, cache.get("a"));
+        cache.get("b");
+        assertEquals(2, cache.getEvictionCount());
+    }
+
+    @Test
+    public void ensure_evicts_by_weight(){
+        final TemplateCache cache = TemplateCache.builder().maxWeight(10).build();
+        final Template first = cache.get("12345");
+        cache.get("67890");
+        assertEquals(10, cache.getWeight());
+
+        cache.get("x");
+        assertEquals(6, cache.getWeight());
+        assertEquals(1, cache.getEvictionCount());
+        assertNotSame(first, cache.get("12345"));
+    }
+
+    @Test
+    public void ensure_interpolates(){
+        final TemplateCache cache = TemplateCache.builder().maxEntries(10).build();
+        final Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("food","apples");
+
+        assertEquals("alice likes apples", cache.interpolate("alice likes ${food}", vars));
+        assertEquals("alice likes apples", cache.interpolate("alice likes ${food}", vars));
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ensure_must_be_bounded(){
+        TemplateCache.builder().build();
+    }
+}
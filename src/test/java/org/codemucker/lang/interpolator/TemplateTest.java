@@ -0,0 +1,154 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class TemplateTest {
+
+    @Test
+    public void ensure_renders_same_as_interpolate(){
+        final Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("food","apples");
+        vars.put("and","oranges");
+        vars.put("nothing",null);
+
+        final String[] inputs = {
+                "",
+                "abc",
+                "alice likes ${food}",
+                "alice likes ${food} and ${and}",
+                "alice likes ${food} and ${and} and ${undefined}",
+                "alice likes ${food",
+                "alice likes $${food}",
+                "alice likes ${${food}}",
+                "alice likes ${${food}$}",
+                "alice likes ${ food }${nothing}!",
+                "${food}",
+                "$",
+                "$$",
+                "${",
+                "${}",
+                "$a${and}$"
+        };
+        for (final String input : inputs) {
+            final Template template = Interpolator.compile(input);
+            assertEquals(input, Interpolator.interpolate(input, vars).toString(), template.render(vars));
+        }
+    }
+
+    @Test
+    public void ensure_can_render_multiple_times(){
+        final Template template = Interpolator.compile("the ${animal} jumped over the ${what}");
+        final Map<String, Object> vars = new HashMap<String, Object>();
+
+        vars.put("animal","cow");
+        vars.put("what","moon");
+        assertEquals("the cow jumped over the moon", template.render(vars));
+
+        vars.put("animal","dog");
+        vars.put("what","log");
+        assertEquals("the dog jumped over the log", template.render(vars));
+    }
+
+    @Test
+    public void ensure_returns_source_when_no_vars(){
+        final Template template = Interpolator.compile("alice likes ${food}");
+        assertEquals("alice likes ${food}", template.render(null));
+        assertEquals("alice likes ${food}", template.render(new HashMap<String, Object>()));
+    }
+
+    @Test
+    public void ensure_exposes_trimmed_var_names(){
+        final Template template = Interpolator.compile("${ a }-${b}-${a}");
+        assertEquals(3, template.getNumVars());
+        assertEquals("a", template.getVarName(0));
+        assertEquals("b", template.getVarName(1));
+        assertEquals("a", template.getVarName(2));
+    }
+
+    @Test
+    public void ensure_gathering_write_renders_same_as_render() throws IOException {
+        final Charset utf8 = Charset.forName("UTF-8");
+        final Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("food","äpples");
+        vars.put("empty","");
+        vars.put("nothing",null);
+
+        final String[] inputs = { "", "abc", "${food}", "ü ${food}${empty}${nothing} and ${undefined}!", "${food" };
+        for (final String input : inputs) {
+            final Template template = Interpolator.compile(input);
+            //render twice to ensure the shared segments aren't consumed
+            for (int i = 0; i < 2; i++) {
+                final TrickleChannel out = new TrickleChannel();
+                final long written = template.renderTo(vars, out, utf8);
+                final String expect = template.render(vars);
+                assertEquals(input, expect, new String(out.bytes.toByteArray(), utf8));
+                assertEquals(expect.getBytes(utf8).length, written);
+            }
+        }
+    }
+
+    /**
+     * Only writes a few bytes per call, to check partial writes are retried
+     */
+    private static class TrickleChannel implements GatheringByteChannel {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        @Override
+        public long write(final ByteBuffer[] srcs, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                if (srcs[i].hasRemaining()) {
+                    return write(srcs[i]);
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public long write(final ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public int write(final ByteBuffer src) {
+            final int n = Math.min(3, src.remaining());
+            for (int i = 0; i < n; i++) {
+                bytes.write(src.get());
+            }
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
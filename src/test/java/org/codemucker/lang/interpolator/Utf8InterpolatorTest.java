@@ -0,0 +1,81 @@
+/*
+ * Copyright 2011 Bert van Brakel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codemucker.lang.interpolator;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class Utf8InterpolatorTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Test
+    public void ensure_matches_string_path_on_multi_byte_input() throws IOException {
+        final Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("food","apples");
+        vars.put("and","é中文😀");
+        vars.put("中","middle");
+        vars.put("nothing",null);
+
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            sb.append("alice ü likes ${food} and ${ and }, $$${food} $ ${undefined}${中}${nothing} ${open").append(i);
+        }
+        final String input = sb.toString();
+        final String expect = Interpolator.interpolate(input, vars).toString();
+        final VariableResolver resolver = Resolvers.fromMap(vars);
+
+        assertEquals(expect, new String(Interpolator.interpolateUtf8(input.getBytes(UTF8), vars), UTF8));
+
+        final ByteBuffer direct = ByteBuffer.allocateDirect(input.length() * 4);
+        direct.put(input.getBytes(UTF8)).flip();
+        assertEquals(expect, UTF8.decode(Interpolator.interpolateUtf8With(direct, resolver)).toString());
+        assertEquals(0, direct.position());
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Interpolator.interpolateUtf8With(ByteBuffer.wrap(input.getBytes(UTF8)), resolver, out);
+        assertEquals(expect, new String(out.toByteArray(), UTF8));
+    }
+
+    @Test
+    public void ensure_encodes_large_values_to_stream() throws IOException {
+        final StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            value.append("a中😀");
+        }
+        final Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("big",value);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Interpolator.interpolateUtf8With(ByteBuffer.wrap("<${big}>".getBytes(UTF8)), Resolvers.fromMap(vars), out);
+        assertEquals("<" + value + ">", new String(out.toByteArray(), UTF8));
+        assertEquals("<" + value + ">", new String(Interpolator.interpolateUtf8("<${big}>".getBytes(UTF8), vars), UTF8));
+    }
+
+    @Test
+    public void ensure_returns_input_when_no_vars() {
+        final byte[] input = "alice likes ${food}".getBytes(UTF8);
+        assertEquals(input, Interpolator.interpolateUtf8(input, null));
+    }
+}